@@ -0,0 +1,84 @@
+package com.itemis.maven.plugins.unleash.scm.providers.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.Merger;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+import com.itemis.maven.plugins.unleash.scm.providers.merge.UnleashGitFullMergeStrategy;
+import com.itemis.maven.plugins.unleash.scm.providers.merge.UnleashGitMerger;
+
+/**
+ * Measures the in-core merge of {@link MergeScenario#LARGE_TREE} by {@link UnleashGitMerger}. Since every path is
+ * changed on one side only, the numbers reflect the per-path bookkeeping of the merger rather than content merges.<br>
+ * Run with <code>java -jar target/benchmarks.jar LargeTreeMergeBenchmark -prof gc</code>. The allocations per merge
+ * are reported as <code>gc.alloc.rate.norm</code>, the collections and their time as <code>gc.count</code> and
+ * <code>gc.time</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LargeTreeMergeBenchmark {
+  private File rootDir;
+  private Git git;
+  private ObjectId ours;
+  private ObjectId theirs;
+  private UnleashGitFullMergeStrategy strategy;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, GitAPIException {
+    this.rootDir = Files.createTempDir();
+    this.git = Git.init().setBare(true).setDirectory(this.rootDir).call();
+    Repository repository = this.git.getRepository();
+
+    ObjectInserter inserter = repository.newObjectInserter();
+    try {
+      ObjectId[] commits = MergeScenario.LARGE_TREE.create(inserter);
+      this.ours = commits[1];
+      this.theirs = commits[2];
+    } finally {
+      inserter.close();
+    }
+
+    StubMergeClient mergeClient = new StubMergeClient();
+    this.strategy = new UnleashGitFullMergeStrategy(mergeClient);
+    if (!merge() || mergeClient.getCalls() != 0) {
+      throw new IllegalStateException("The large tree is expected to merge without the merge client.");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.git.close();
+    FileUtils.delete(this.rootDir, FileUtils.RECURSIVE | FileUtils.RETRY | FileUtils.SKIP_MISSING);
+  }
+
+  @Benchmark
+  public boolean merge() throws IOException {
+    Merger merger = this.strategy.newMerger(this.git.getRepository(), true);
+    return merger.merge(this.ours, this.theirs);
+  }
+}
@@ -0,0 +1,190 @@
+package com.itemis.maven.plugins.unleash.scm.providers.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+
+/**
+ * Generated three-way merge situations. Each scenario produces a base commit and two commits on top of it, ours and
+ * theirs, whose changes can be merged without conflicts by the {@link StubMergeClient}.
+ */
+public enum MergeScenario {
+  /** Many small files that are changed on both sides, each of them has to be passed to the merge client. */
+  SMALL_CONFLICTS {
+    @Override
+    void generate(Trees trees) throws IOException {
+      for (int i = 0; i < 2000; i++) {
+        String[] lines = createLines(i, 20);
+        trees.add("src/dir" + (i / 100) + "/File" + i + ".java", lines, change(lines, 2, "ours"),
+            change(lines, 15, "theirs"));
+      }
+    }
+  },
+  /** A few huge files that are changed on both sides. */
+  HUGE_FILES {
+    @Override
+    void generate(Trees trees) throws IOException {
+      for (int i = 0; i < 4; i++) {
+        String[] lines = createLines(i, 200000);
+        String[] ours = lines.clone();
+        String[] theirs = lines.clone();
+        for (int l = 0; l < lines.length; l += 1000) {
+          ours[l] = "ours " + ours[l];
+          theirs[l + 500] = "theirs " + theirs[l + 500];
+        }
+        trees.add("data/huge" + i + ".txt", lines, ours, theirs);
+      }
+    }
+  },
+  /** A deep tree of many files of which only a few have been changed on either or both sides. */
+  DEEP_SPARSE {
+    @Override
+    void generate(Trees trees) throws IOException {
+      for (int i = 0; i < 20000; i++) {
+        StringBuilder path = new StringBuilder();
+        for (int level = 0, n = i; level < 6; level++, n /= 5) {
+          path.append("level").append(level).append('-').append(n % 5).append('/');
+        }
+        String[] lines = createLines(i, 10);
+        String[] ours = i % 1000 == 0 || i % 1000 == 250 ? change(lines, 1, "ours") : lines;
+        String[] theirs = i % 1000 == 0 || i % 1000 == 750 ? change(lines, 8, "theirs") : lines;
+        trees.add(path.append("file").append(i).append(".txt").toString(), lines, ours, theirs);
+      }
+    }
+  },
+  /**
+   * A huge tree of which every file has been changed on their side only. No content merges are needed, so the merge is
+   * dominated by the bookkeeping per path.
+   */
+  LARGE_TREE {
+    @Override
+    void generate(Trees trees) throws IOException {
+      for (int i = 0; i < 200000; i++) {
+        String[] lines = createLines(i, 1);
+        trees.add("module" + (i / 10000) + "/src/dir" + (i / 100 % 100) + "/File" + i + ".java", lines, lines,
+            change(lines, 0, "theirs"));
+      }
+    }
+  },
+  /** Binary files that are changed on both sides and are resolved without the merge client. */
+  BINARIES {
+    @Override
+    void generate(Trees trees) throws IOException {
+      Random random = new Random(4711);
+      for (int i = 0; i < 200; i++) {
+        byte[] base = new byte[64 * 1024];
+        random.nextBytes(base);
+        base[0] = 0;
+        byte[] ours = base.clone();
+        byte[] theirs = base.clone();
+        ours[1] ^= 1;
+        theirs[base.length - 1] ^= 1;
+        trees.add("lib/archive" + i + ".bin", base, ours, theirs);
+      }
+    }
+  };
+
+  abstract void generate(Trees trees) throws IOException;
+
+  /**
+   * Generates the scenario.
+   *
+   * @return the ids of the base, our and their commits.
+   */
+  public ObjectId[] create(ObjectInserter inserter) throws IOException {
+    Trees trees = new Trees(inserter);
+    generate(trees);
+    return trees.commit(name());
+  }
+
+  private static String[] createLines(int file, int count) {
+    String[] lines = new String[count];
+    for (int i = 0; i < count; i++) {
+      lines[i] = "line " + i + " of file " + file;
+    }
+    return lines;
+  }
+
+  private static String[] change(String[] lines, int index, String side) {
+    String[] changed = lines.clone();
+    changed[index] = side + " " + changed[index];
+    return changed;
+  }
+
+  /**
+   * Collects the contents of the base, our and their trees.
+   */
+  static class Trees {
+    private final ObjectInserter inserter;
+    private final DirCacheBuilder base;
+    private final DirCacheBuilder ours;
+    private final DirCacheBuilder theirs;
+
+    private Trees(ObjectInserter inserter) {
+      this.inserter = inserter;
+      this.base = DirCache.newInCore().builder();
+      this.ours = DirCache.newInCore().builder();
+      this.theirs = DirCache.newInCore().builder();
+    }
+
+    void add(String path, String[] base, String[] ours, String[] theirs) throws IOException {
+      add(path, toBytes(base), ours == base ? null : toBytes(ours), theirs == base ? null : toBytes(theirs));
+    }
+
+    /**
+     * Adds a path to all three trees. A <code>null</code> content of ours or theirs takes the base content.
+     */
+    void add(String path, byte[] base, byte[] ours, byte[] theirs) throws IOException {
+      ObjectId baseId = this.inserter.insert(Constants.OBJ_BLOB, base);
+      add(this.base, path, baseId);
+      add(this.ours, path, ours != null ? this.inserter.insert(Constants.OBJ_BLOB, ours) : baseId);
+      add(this.theirs, path, theirs != null ? this.inserter.insert(Constants.OBJ_BLOB, theirs) : baseId);
+    }
+
+    private static void add(DirCacheBuilder builder, String path, ObjectId id) {
+      DirCacheEntry entry = new DirCacheEntry(path);
+      entry.setFileMode(FileMode.REGULAR_FILE);
+      entry.setObjectId(id);
+      builder.add(entry);
+    }
+
+    private static byte[] toBytes(String[] lines) {
+      StringBuilder sb = new StringBuilder(lines.length * 32);
+      for (String line : lines) {
+        sb.append(line).append('\n');
+      }
+      return Constants.encode(sb.toString());
+    }
+
+    private ObjectId[] commit(String name) throws IOException {
+      ObjectId baseCommit = commit(this.base, null, name + " base");
+      ObjectId oursCommit = commit(this.ours, baseCommit, name + " ours");
+      ObjectId theirsCommit = commit(this.theirs, baseCommit, name + " theirs");
+      this.inserter.flush();
+      return new ObjectId[] { baseCommit, oursCommit, theirsCommit };
+    }
+
+    private ObjectId commit(DirCacheBuilder builder, ObjectId parent, String message) throws IOException {
+      builder.finish();
+      PersonIdent ident = new PersonIdent("Benchmark", "benchmark@example.com", 0, 0);
+      CommitBuilder commit = new CommitBuilder();
+      commit.setTreeId(builder.getDirCache().writeTree(this.inserter));
+      if (parent != null) {
+        commit.setParentId(parent);
+      }
+      commit.setAuthor(ident);
+      commit.setCommitter(ident);
+      commit.setMessage(message);
+      return this.inserter.insert(commit);
+    }
+  }
+}
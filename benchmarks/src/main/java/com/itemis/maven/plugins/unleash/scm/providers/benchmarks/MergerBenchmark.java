@@ -0,0 +1,119 @@
+package com.itemis.maven.plugins.unleash.scm.providers.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.merge.Merger;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+import com.itemis.maven.plugins.unleash.scm.providers.merge.UnleashGitFullMergeStrategy;
+import com.itemis.maven.plugins.unleash.scm.providers.merge.UnleashGitMerger;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+
+/**
+ * Measures the three-way merge of {@link UnleashGitMerger} for the generated {@link MergeScenario}s. All content merges
+ * are done by the {@link StubMergeClient} so that the numbers reflect the merger itself. In worktree mode the index and
+ * the working tree are reset to our commit before each merge, outside of the measured section.<br>
+ * Run with <code>java -jar target/benchmarks.jar MergerBenchmark -prof gc -rf json -rff merger.json</code> in order to
+ * get the allocation rates as well.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergerBenchmark {
+  @Param({ "SMALL_CONFLICTS", "HUGE_FILES", "DEEP_SPARSE", "BINARIES" })
+  public MergeScenario scenario;
+  @Param({ "true", "false" })
+  public boolean inCore;
+  @Param({ "0" })
+  public int mergeThreads;
+
+  private File rootDir;
+  private Git git;
+  private ObjectId ours;
+  private ObjectId theirs;
+  private UnleashGitFullMergeStrategy strategy;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, GitAPIException {
+    this.rootDir = Files.createTempDir();
+    this.git = Git.init().setDirectory(this.rootDir).call();
+    Repository repository = this.git.getRepository();
+
+    StoredConfig config = repository.getConfig();
+    config.setEnum(GitUtil.CONFIG_SECTION_UNLEASH, null, UnleashGitMerger.CONFIG_KEY_BINARY_MERGE_STRATEGY,
+        UnleashGitMerger.BinaryMergeStrategy.OURS);
+    if (this.mergeThreads > 0) {
+      config.setInt(GitUtil.CONFIG_SECTION_UNLEASH, null, UnleashGitMerger.CONFIG_KEY_MERGE_THREADS,
+          this.mergeThreads);
+    }
+    config.save();
+
+    ObjectInserter inserter = repository.newObjectInserter();
+    try {
+      ObjectId[] commits = this.scenario.create(inserter);
+      this.ours = commits[1];
+      this.theirs = commits[2];
+    } finally {
+      inserter.close();
+    }
+
+    RefUpdate update = repository.updateRef(Constants.HEAD);
+    update.setNewObjectId(this.ours);
+    update.forceUpdate();
+    if (!this.inCore) {
+      this.git.reset().setMode(ResetType.HARD).call();
+    }
+
+    this.strategy = new UnleashGitFullMergeStrategy(new StubMergeClient());
+    if (!merge()) {
+      throw new IllegalStateException("The merge of scenario " + this.scenario + " is expected to succeed.");
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void resetWorkingTree() throws GitAPIException {
+    if (!this.inCore) {
+      this.git.reset().setMode(ResetType.HARD).call();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.git.close();
+    FileUtils.delete(this.rootDir, FileUtils.RECURSIVE | FileUtils.RETRY | FileUtils.SKIP_MISSING);
+  }
+
+  @Benchmark
+  public boolean merge() throws IOException {
+    Merger merger = this.strategy.newMerger(this.git.getRepository(), this.inCore);
+    return merger.merge(this.ours, this.theirs);
+  }
+}
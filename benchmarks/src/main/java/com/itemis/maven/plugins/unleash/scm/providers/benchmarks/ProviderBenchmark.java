@@ -0,0 +1,184 @@
+package com.itemis.maven.plugins.unleash.scm.providers.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Optional;
+import com.itemis.maven.plugins.unleash.scm.ScmException;
+import com.itemis.maven.plugins.unleash.scm.ScmProviderInitialization;
+import com.itemis.maven.plugins.unleash.scm.providers.ScmProviderGit;
+import com.itemis.maven.plugins.unleash.scm.requests.CommitRequest;
+import com.itemis.maven.plugins.unleash.scm.requests.DiffRequest;
+import com.itemis.maven.plugins.unleash.scm.requests.HistoryRequest;
+import com.itemis.maven.plugins.unleash.scm.requests.PushRequest;
+import com.itemis.maven.plugins.unleash.scm.requests.TagRequest;
+import com.itemis.maven.plugins.unleash.scm.requests.UpdateRequest;
+import com.itemis.maven.plugins.unleash.scm.results.DiffResult;
+import com.itemis.maven.plugins.unleash.scm.results.HistoryResult;
+
+/**
+ * Measures the operations of {@link ScmProviderGit} against a {@link SyntheticRepository}. Each benchmark runs in its
+ * own fork on a freshly generated repository. Operations that change the repository get their preconditions, e.g. a
+ * local change to commit or a remote change to update to, prepared outside of the measured section.<br>
+ * Run with <code>java -jar target/benchmarks.jar ProviderBenchmark -rf json -rff provider.json</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProviderBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Repository {
+    @Param({ "1000" })
+    public int files;
+    @Param({ "200" })
+    public int commits;
+    @Param({ "50" })
+    public int tags;
+    @Param({ "10" })
+    public int branches;
+    @Param({ "false" })
+    public boolean caches;
+
+    private SyntheticRepository repository;
+    private ScmProviderGit provider;
+    private int tagCounter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GitAPIException {
+      this.repository = SyntheticRepository.create(this.files, this.commits, this.tags, this.branches, this.caches);
+      this.provider = new ScmProviderGit();
+      this.provider.initialize(new BenchmarkInitialization(this.repository.getWorkingDirectory()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      try {
+        this.provider.close();
+      } finally {
+        this.repository.close();
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class LocalChange {
+    @Setup(Level.Invocation)
+    public void setUp(Repository repository) throws IOException {
+      repository.repository.modifyWorkingCopy();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class LocalCommit {
+    @Setup(Level.Invocation)
+    public void setUp(Repository repository) throws IOException, GitAPIException {
+      repository.repository.commitLocally();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class RemoteCommit {
+    @Setup(Level.Invocation)
+    public void setUp(Repository repository) throws IOException, GitAPIException {
+      repository.repository.pushRemoteChange();
+    }
+  }
+
+  @Benchmark
+  public String commit(Repository repository, LocalChange change) throws ScmException {
+    return repository.provider.commit(CommitRequest.builder().message("Benchmark commit").noMerge().build());
+  }
+
+  @Benchmark
+  public String tag(Repository repository) throws ScmException {
+    String tagName = "benchmark-" + repository.tagCounter++;
+    return repository.provider.tag(TagRequest.builder().tagName(tagName).message("Benchmark tag").build());
+  }
+
+  @Benchmark
+  public String push(Repository repository, LocalCommit commit) throws ScmException {
+    return repository.provider.push(PushRequest.builder().build());
+  }
+
+  @Benchmark
+  public String update(Repository repository, RemoteCommit commit) throws ScmException {
+    return repository.provider.update(UpdateRequest.builder().build());
+  }
+
+  @Benchmark
+  public boolean hasTag(Repository repository) throws ScmException {
+    return repository.provider.hasTag(repository.repository.getTagNames().get(0));
+  }
+
+  @Benchmark
+  public HistoryResult getHistory(Repository repository) throws ScmException {
+    return repository.provider.getHistory(HistoryRequest.builder().build());
+  }
+
+  @Benchmark
+  public DiffResult getDiff(Repository repository) throws ScmException {
+    return repository.provider.getDiff(DiffRequest.builder().fromRevision(repository.repository.getFirstCommit())
+        .toRevision("HEAD").build());
+  }
+
+  private static class BenchmarkInitialization implements ScmProviderInitialization {
+    private final File workingDirectory;
+    private final Logger log;
+
+    private BenchmarkInitialization(File workingDirectory) {
+      this.workingDirectory = workingDirectory;
+      this.log = Logger.getLogger(ProviderBenchmark.class.getName());
+      this.log.setLevel(java.util.logging.Level.WARNING);
+    }
+
+    @Override
+    public Optional<Logger> getLogger() {
+      return Optional.of(this.log);
+    }
+
+    @Override
+    public File getWorkingDirectory() {
+      return this.workingDirectory;
+    }
+
+    @Override
+    public Optional<String> getUsername() {
+      return Optional.absent();
+    }
+
+    @Override
+    public Optional<String> getPassword() {
+      return Optional.absent();
+    }
+
+    @Override
+    public Optional<String> getSshPrivateKey() {
+      return Optional.absent();
+    }
+
+    @Override
+    public Optional<String> getSshPrivateKeyPassphrase() {
+      return Optional.absent();
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.itemis.maven.plugins.unleash.scm.providers.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import com.google.common.io.ByteStreams;
+import com.itemis.maven.plugins.unleash.scm.ScmException;
+import com.itemis.maven.plugins.unleash.scm.ScmOperation;
+import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
+
+/**
+ * A deterministic in-process merge client that merges line by line: lines changed on one side only are taken from that
+ * side, lines changed on both sides are taken from the local side. If the line counts differ, the local content is
+ * taken as a whole. The client is thread-safe and counts its calls.
+ */
+public class StubMergeClient implements MergeClient {
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @Override
+  public void merge(InputStream local, InputStream remote, InputStream base, OutputStream result) {
+    this.calls.incrementAndGet();
+    try {
+      byte[] ours = ByteStreams.toByteArray(local);
+      byte[] theirs = ByteStreams.toByteArray(remote);
+      byte[] ancestor = base != null ? ByteStreams.toByteArray(base) : new byte[0];
+
+      IntList ourLines = RawParseUtils.lineMap(ours, 0, ours.length);
+      IntList theirLines = RawParseUtils.lineMap(theirs, 0, theirs.length);
+      IntList baseLines = RawParseUtils.lineMap(ancestor, 0, ancestor.length);
+      if (ourLines.size() != theirLines.size() || ourLines.size() != baseLines.size()) {
+        result.write(ours);
+        return;
+      }
+
+      // line maps start with a sentinel at index 0 and end with the content length
+      for (int i = 1; i < ourLines.size() - 1; i++) {
+        byte[] o = Arrays.copyOfRange(ours, ourLines.get(i), ourLines.get(i + 1));
+        byte[] t = Arrays.copyOfRange(theirs, theirLines.get(i), theirLines.get(i + 1));
+        byte[] b = Arrays.copyOfRange(ancestor, baseLines.get(i), baseLines.get(i + 1));
+        result.write(Arrays.equals(b, o) ? t : o);
+      }
+    } catch (IOException e) {
+      throw new ScmException(ScmOperation.MERGE, "Could not merge the contents.", e);
+    }
+  }
+
+  public int getCalls() {
+    return this.calls.get();
+  }
+}
@@ -0,0 +1,219 @@
+package com.itemis.maven.plugins.unleash.scm.providers.benchmarks;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.FileUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.itemis.maven.plugins.unleash.scm.providers.diff.DiffCache;
+import com.itemis.maven.plugins.unleash.scm.providers.merge.MergeBaseCache;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+
+/**
+ * A generated repository consisting of a bare remote and two clones of it that are connected via <code>file://</code>
+ * URLs. The working clone is the one the provider operates on, the upstream clone is used to publish remote changes.
+ * All contents are derived from a fixed seed so that the same parameters always produce the same history.
+ */
+public class SyntheticRepository implements Closeable {
+  private static final long SEED = 4711;
+  private static final int FILES_PER_DIRECTORY = 100;
+  private static final int LINES_PER_FILE = 40;
+
+  private final File rootDir;
+  private final File remoteDir;
+  private final File workingDir;
+  private final File upstreamDir;
+  private final int files;
+  private final Random random;
+  private final List<String> tagNames;
+  private final List<String> branchNames;
+  private Git working;
+  private Git upstream;
+  private String firstCommit;
+  private int changeCounter;
+
+  private SyntheticRepository(File rootDir, int files) {
+    this.rootDir = rootDir;
+    this.remoteDir = new File(rootDir, "remote.git");
+    this.workingDir = new File(rootDir, "working");
+    this.upstreamDir = new File(rootDir, "upstream");
+    this.files = files;
+    this.random = new Random(SEED);
+    this.tagNames = Lists.newArrayList();
+    this.branchNames = Lists.newArrayList();
+  }
+
+  /**
+   * Generates a new repository in a temporary directory.
+   *
+   * @param files the number of files of the initial commit. Files are spread over directories of
+   *          {@value #FILES_PER_DIRECTORY} files each.
+   * @param commits the number of commits on the master branch including the initial one. Each commit after the
+   *          initial one changes one percent of the files.
+   * @param tags the number of annotated tags spread evenly over the commits.
+   * @param branches the number of branches pointing to commits of the history.
+   * @param caches whether the diff and merge base caches of the provider shall be enabled.
+   */
+  public static SyntheticRepository create(int files, int commits, int tags, int branches, boolean caches)
+      throws IOException, GitAPIException {
+    SyntheticRepository repository = new SyntheticRepository(Files.createTempDir(), Math.max(1, files));
+    try {
+      repository.generate(Math.max(1, commits), tags, branches, caches);
+    } catch (IOException e) {
+      repository.close();
+      throw e;
+    } catch (GitAPIException e) {
+      repository.close();
+      throw e;
+    }
+    return repository;
+  }
+
+  private void generate(int commits, int tags, int branches, boolean caches) throws IOException, GitAPIException {
+    Git.init().setBare(true).setDirectory(this.remoteDir).call().close();
+    this.working = Git.cloneRepository().setURI(getRemoteUrl()).setDirectory(this.workingDir).call();
+    configure(this.working, caches);
+
+    AddCommand add = this.working.add();
+    for (int i = 0; i < this.files; i++) {
+      add.addFilepattern(writeFile(this.workingDir, i));
+    }
+    add.call();
+    RevCommit commit = this.working.commit().setMessage("Initial commit").call();
+    this.firstCommit = commit.getName();
+
+    int changesPerCommit = Math.max(1, this.files / 100);
+    int tagInterval = tags > 0 ? Math.max(1, commits / tags) : 0;
+    int branchInterval = branches > 0 ? Math.max(1, commits / branches) : 0;
+    for (int c = 1; c <= commits; c++) {
+      if (c > 1) {
+        add = this.working.add();
+        for (int i = 0; i < changesPerCommit; i++) {
+          add.addFilepattern(writeFile(this.workingDir, this.random.nextInt(this.files)));
+        }
+        add.call();
+        commit = this.working.commit().setMessage("Change " + c).call();
+      }
+      if (tagInterval > 0 && this.tagNames.size() < tags && c % tagInterval == 0) {
+        String tagName = "tag-" + c;
+        this.working.tag().setName(tagName).setMessage("Tag " + c).setObjectId(commit).call();
+        this.tagNames.add(tagName);
+      }
+      if (branchInterval > 0 && this.branchNames.size() < branches && c % branchInterval == 0) {
+        String branchName = "branch-" + c;
+        this.working.branchCreate().setName(branchName).setStartPoint(commit).call();
+        this.branchNames.add(branchName);
+      }
+    }
+    this.working.push().setPushAll().setPushTags().call();
+
+    this.upstream = Git.cloneRepository().setURI(getRemoteUrl()).setDirectory(this.upstreamDir).call();
+    configure(this.upstream, caches);
+  }
+
+  private void configure(Git git, boolean caches) throws IOException {
+    StoredConfig config = git.getRepository().getConfig();
+    config.setString("user", null, "name", "Benchmark");
+    config.setString("user", null, "email", "benchmark@example.com");
+    if (!caches) {
+      config.setInt(GitUtil.CONFIG_SECTION_UNLEASH, null, DiffCache.CONFIG_KEY_SIZE, 0);
+      config.setBoolean(GitUtil.CONFIG_SECTION_UNLEASH, null, DiffCache.CONFIG_KEY_PERSISTENT, false);
+      config.setInt(GitUtil.CONFIG_SECTION_UNLEASH, null, MergeBaseCache.CONFIG_KEY_SIZE, 0);
+    }
+    config.save();
+  }
+
+  private String writeFile(File dir, int index) throws IOException {
+    String path = getPath(index);
+    StringBuilder sb = new StringBuilder(LINES_PER_FILE * 48);
+    for (int i = 0; i < LINES_PER_FILE; i++) {
+      sb.append("line ").append(i).append(" of file ").append(index).append(": ").append(this.random.nextLong())
+          .append('\n');
+    }
+    File file = new File(dir, path);
+    FileUtils.mkdirs(file.getParentFile(), true);
+    Files.write(sb.toString(), file, StandardCharsets.UTF_8);
+    return path;
+  }
+
+  private static String getPath(int index) {
+    return "dir" + (index / FILES_PER_DIRECTORY) + "/file" + index + ".txt";
+  }
+
+  /**
+   * Modifies a single file of the working clone without staging it.
+   */
+  public void modifyWorkingCopy() throws IOException {
+    writeFile(this.workingDir, this.changeCounter++ % this.files);
+  }
+
+  /**
+   * Modifies a single file of the working clone and commits it locally.
+   *
+   * @return the id of the new commit.
+   */
+  public String commitLocally() throws IOException, GitAPIException {
+    String path = writeFile(this.workingDir, this.changeCounter++ % this.files);
+    this.working.add().addFilepattern(path).call();
+    return this.working.commit().setMessage("Local change " + this.changeCounter).call().getName();
+  }
+
+  /**
+   * Modifies a single file in the upstream clone and pushes it to the remote. Remote changes pick files from the
+   * end of the file list while local changes pick them from the start.
+   *
+   * @return the id of the pushed commit.
+   */
+  public String pushRemoteChange() throws IOException, GitAPIException {
+    String path = writeFile(this.upstreamDir, this.files - 1 - this.changeCounter++ % this.files);
+    this.upstream.add().addFilepattern(path).call();
+    String id = this.upstream.commit().setMessage("Remote change " + this.changeCounter).call().getName();
+    this.upstream.push().call();
+    return id;
+  }
+
+  public File getWorkingDirectory() {
+    return this.workingDir;
+  }
+
+  public String getRemoteUrl() {
+    return this.remoteDir.toURI().toString();
+  }
+
+  /**
+   * @return the id of the initial commit.
+   */
+  public String getFirstCommit() {
+    return this.firstCommit;
+  }
+
+  public List<String> getTagNames() {
+    return this.tagNames;
+  }
+
+  public List<String> getBranchNames() {
+    return this.branchNames;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.working != null) {
+      this.working.close();
+    }
+    if (this.upstream != null) {
+      this.upstream.close();
+    }
+    FileUtils.delete(this.rootDir, FileUtils.RECURSIVE | FileUtils.RETRY | FileUtils.SKIP_MISSING);
+  }
+}
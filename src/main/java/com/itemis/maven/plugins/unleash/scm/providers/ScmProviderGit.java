@@ -3,8 +3,12 @@ package com.itemis.maven.plugins.unleash.scm.providers;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -15,13 +19,13 @@ import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.CreateBranchCommand.SetupUpstreamMode;
-import org.eclipse.jgit.api.DeleteTagCommand;
 import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.LogCommand;
 import org.eclipse.jgit.api.LsRemoteCommand;
 import org.eclipse.jgit.api.MergeCommand;
 import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
+import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.PushCommand;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.RevertCommand;
@@ -29,19 +33,40 @@ import org.eclipse.jgit.api.TagCommand;
 import org.eclipse.jgit.api.TransportCommand;
 import org.eclipse.jgit.api.TransportConfigCallback;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.eclipse.jgit.diff.DiffConfig;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.errors.NoMergeBaseException;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
 import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.Merger;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.merge.ResolveMerger.MergeFailureReason;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.Connection;
 import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.PushConnection;
 import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.RemoteRefUpdate;
 import org.eclipse.jgit.transport.RemoteRefUpdate.Status;
 import org.eclipse.jgit.transport.SshSessionFactory;
@@ -54,15 +79,28 @@ import com.google.common.base.Joiner;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
 import com.itemis.maven.plugins.unleash.scm.ScmException;
 import com.itemis.maven.plugins.unleash.scm.ScmOperation;
 import com.itemis.maven.plugins.unleash.scm.ScmProvider;
 import com.itemis.maven.plugins.unleash.scm.ScmProviderInitialization;
 import com.itemis.maven.plugins.unleash.scm.annotations.ScmProviderType;
+import com.itemis.maven.plugins.unleash.scm.providers.diff.BlobDiffGuard;
+import com.itemis.maven.plugins.unleash.scm.providers.diff.DiffCache;
+import com.itemis.maven.plugins.unleash.scm.providers.diff.DiffCache.CachedDiffEntry;
+import com.itemis.maven.plugins.unleash.scm.providers.merge.MergeBaseCache;
+import com.itemis.maven.plugins.unleash.scm.providers.merge.MergeDriverRegistry;
 import com.itemis.maven.plugins.unleash.scm.providers.merge.UnleashGitFullMergeStrategy;
+import com.itemis.maven.plugins.unleash.scm.providers.results.MergePreflightResult;
+import com.itemis.maven.plugins.unleash.scm.providers.results.RefChangeResult;
+import com.itemis.maven.plugins.unleash.scm.providers.staging.StagingEngine;
+import com.itemis.maven.plugins.unleash.scm.providers.staging.StagingEngine.StagingResult;
 import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+import com.itemis.maven.plugins.unleash.scm.providers.util.WorktreeChangeTracker;
 import com.itemis.maven.plugins.unleash.scm.requests.BranchRequest;
 import com.itemis.maven.plugins.unleash.scm.requests.CheckoutRequest;
 import com.itemis.maven.plugins.unleash.scm.requests.CommitRequest;
@@ -84,6 +122,8 @@ import com.itemis.maven.plugins.unleash.scm.results.HistoryResult;
 @ScmProviderType("git")
 public class ScmProviderGit implements ScmProvider {
   private static final String LOG_PREFIX = "Git - ";
+  private static final int DIFF_CONTEXT_LINES = 3;
+  private static final int DIFF_ABBREVIATION_LENGTH = 7;
 
   private Logger log;
   private Git git;
@@ -93,6 +133,10 @@ public class ScmProviderGit implements ScmProvider {
   private File workingDir;
   private List<String> additionalThingsToPush;
   private GitUtil util;
+  private DiffCache diffCache;
+  private WorktreeChangeTracker changeTracker;
+  private MergeBaseCache mergeBaseCache;
+  private MergeDriverRegistry mergeDrivers;
 
   @Override
   public void initialize(final ScmProviderInitialization initialization) {
@@ -104,9 +148,7 @@ public class ScmProviderGit implements ScmProvider {
       try {
         FileRepositoryBuilder builder = new FileRepositoryBuilder();
         Repository repo = builder.findGitDir(this.workingDir).build();
-        this.git = Git.wrap(repo);
-        this.personIdent = new PersonIdent(repo);
-        this.util = new GitUtil(this.git);
+        initRepository(Git.wrap(repo));
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -119,13 +161,57 @@ public class ScmProviderGit implements ScmProvider {
     this.sshSessionFactory = new GitSshSessionFactory(initialization, this.log);
   }
 
+  /**
+   * Sets up everything that is bound to the local repository, either opened by {@link #initialize} or freshly cloned by
+   * {@link #checkout}.
+   */
+  private void initRepository(Git git) {
+    Repository repo = git.getRepository();
+    this.git = git;
+    this.personIdent = new PersonIdent(repo);
+    this.changeTracker = WorktreeChangeTracker.create(this.git, this.log);
+    this.util = new GitUtil(this.git, this.changeTracker);
+    this.diffCache = new DiffCache(repo);
+    this.mergeBaseCache = new MergeBaseCache(repo.getConfig());
+    this.mergeDrivers = MergeDriverRegistry.createDefault(repo.getConfig());
+  }
+
   @Override
   public void close() {
+    if (this.changeTracker != null) {
+      try {
+        this.changeTracker.close();
+      } catch (IOException e) {
+        // nothing to do, the watch service is gone anyways
+      }
+    }
     if (this.git != null) {
       this.git.close();
     }
   }
 
+  /**
+   * @return the registry of the merge drivers that merge specific paths instead of the merge client of a
+   *         {@link com.itemis.maven.plugins.unleash.scm.requests.MergeStrategy#FULL_MERGE full merge}. Additional
+   *         drivers can be registered before the merge.
+   */
+  public MergeDriverRegistry getMergeDriverRegistry() {
+    return this.mergeDrivers;
+  }
+
+  /**
+   * Reports files that have been written to the working copy, e.g. POMs whose versions have been changed. If the
+   * working tree changes are tracked ({@code unleash.worktreeTracker = true}), these paths are checked on the next
+   * status query or commit without waiting for the file system events of the writes.
+   *
+   * @param paths the paths relative to the working directory.
+   */
+  public void markChanged(Collection<String> paths) {
+    if (this.changeTracker != null) {
+      this.changeTracker.markChanged(paths);
+    }
+  }
+
   public void testConnection(String repositoryUrl) throws ScmException {
     if (this.log.isLoggable(Level.INFO)) {
       this.log.info(ScmProviderGit.LOG_PREFIX + "Testing repository connection (URL: " + repositoryUrl + ").");
@@ -172,8 +258,7 @@ public class ScmProviderGit implements ScmProvider {
       if (!request.checkoutWholeRepository()) {
         clone.setNoCheckout(true);
       }
-      this.git = clone.call();
-      this.util = new GitUtil(this.git);
+      initRepository(clone.call());
 
       if (this.log.isLoggable(Level.FINE)) {
         this.log.fine(LOG_PREFIX + "Cloning remote repository finished successfully.\n");
@@ -202,6 +287,7 @@ public class ScmProviderGit implements ScmProvider {
           checkout.addPath(path);
         }
         checkout.call();
+        markChanged(request.getPathsToCheckout());
       } catch (GitAPIException e) {
         throw new ScmException(ScmOperation.CHECKOUT,
             "Unable to checkout commit with id '" + request.getRevision().get() + "' into local working directory '"
@@ -291,13 +377,6 @@ public class ScmProviderGit implements ScmProvider {
       this.log.info(LOG_PREFIX + "Committing local changes.");
     }
 
-    if (!this.util.isDirty(request.getPathsToCommit())) {
-      if (this.log.isLoggable(Level.INFO)) {
-        this.log.info(LOG_PREFIX + "Nothing to commit here.");
-      }
-      return request.push() ? getLatestRemoteRevision() : getLocalRevision();
-    }
-
     if (this.log.isLoggable(Level.FINE)) {
       StringBuilder message = new StringBuilder(LOG_PREFIX + "Commit info:\n");
       message.append("\t- WORKING_DIR: ").append(this.workingDir.getAbsolutePath()).append('\n');
@@ -310,6 +389,103 @@ public class ScmProviderGit implements ScmProvider {
       this.log.fine(message.toString());
     }
 
+    Optional<String> commitResult;
+    if (StagingEngine.isApplicable(this.git.getRepository())) {
+      commitResult = stageAndCommit(request);
+    } else {
+      // pending merges, reverts, ... need to be committed by JGit's commit command
+      commitResult = addAndCommit(request);
+    }
+
+    if (!commitResult.isPresent()) {
+      if (this.log.isLoggable(Level.INFO)) {
+        this.log.info(LOG_PREFIX + "Nothing to commit here.");
+      }
+      return request.push() ? getLatestRemoteRevision() : getLocalRevision();
+    }
+
+    String newRevision = commitResult.get();
+    if (request.push()) {
+      PushRequest pr = PushRequest.builder().mergeStrategy(request.getMergeStrategy())
+          .mergeClient(request.getMergeClient().orNull()).build();
+      push(pr);
+      newRevision = getLatestRemoteRevision();
+    }
+
+    if (this.log.isLoggable(Level.INFO)) {
+      this.log.info(LOG_PREFIX + "Commit finished successfully. New revision is: " + newRevision);
+    }
+
+    return newRevision;
+  }
+
+  private Optional<String> stageAndCommit(CommitRequest request) throws ScmException {
+    // a single walk over HEAD, index and working tree determines the dirty state, stages the changes and creates the
+    // tree of the new commit
+    StagingEngine engine = new StagingEngine(this.git.getRepository())
+        .setIncludeUntracked(request.includeUntrackedFiles());
+    if (!request.commitAllChanges()) {
+      engine.setPaths(request.getPathsToCommit());
+    } else if (this.changeTracker != null) {
+      engine.setScope(getChangeTrackerScope(request.includeUntrackedFiles()));
+    }
+
+    try {
+      StagingResult result = engine.stage();
+      if (!result.isDirty()) {
+        return Optional.absent();
+      }
+      ObjectId commitId = engine.insertCommit(result, request.getMessage(), this.personIdent);
+      engine.updateHead(result, commitId, request.getMessage());
+      return Optional.of(commitId.getName());
+    } catch (IOException e) {
+      throw new ScmException(ScmOperation.COMMIT, "Could not commit changes of local repository.", e);
+    }
+  }
+
+  /**
+   * Creates a commit of all local changes without updating the index or HEAD. The commit is only reachable by its id
+   * until a ref is pointed to it.
+   *
+   * @return the new commit or the HEAD commit if there are no local changes.
+   */
+  private RevCommit commitInCore(String message, boolean includeUntrackedFiles) throws ScmException {
+    Repository repo = this.git.getRepository();
+    StagingEngine engine = new StagingEngine(repo).setUpdateIndex(false).setIncludeUntracked(includeUntrackedFiles);
+    if (this.changeTracker != null) {
+      engine.setScope(getChangeTrackerScope(includeUntrackedFiles));
+    }
+
+    RevWalk walk = new RevWalk(repo);
+    try {
+      StagingResult result = engine.stage();
+      ObjectId commitId = result.isDirty() ? engine.insertCommit(result, message, this.personIdent)
+          : result.getHeadId();
+      if (commitId == null) {
+        throw new ScmException(ScmOperation.COMMIT, "The local repository does not contain any commits.");
+      }
+      return walk.parseCommit(commitId);
+    } catch (IOException e) {
+      throw new ScmException(ScmOperation.COMMIT, "Could not commit changes of local repository.", e);
+    } finally {
+      walk.close();
+    }
+  }
+
+  private Set<String> getChangeTrackerScope(boolean includeUntrackedFiles) throws ScmException {
+    // only the paths known to the change tracker can differ from HEAD
+    Set<String> scope = Sets.newHashSet(this.changeTracker.getUncommittedChanges());
+    if (includeUntrackedFiles) {
+      scope.addAll(this.changeTracker.getUntracked());
+    }
+    return scope;
+  }
+
+  private Optional<String> addAndCommit(CommitRequest request) throws ScmException {
+    if (!this.util.isDirty(request.getPathsToCommit())) {
+      return Optional.absent();
+    }
+
     // add all changes to be committed (either everything or the specified paths)
     AddCommand add = this.git.add();
     if (request.commitAllChanges()) {
@@ -341,26 +517,12 @@ public class ScmProviderGit implements ScmProvider {
       }
     }
 
-    String newRevision = null;
     try {
       RevCommit result = commit.call();
-      newRevision = result.getName();
+      return Optional.of(result.getName());
     } catch (GitAPIException e) {
-      throw new ScmException(ScmOperation.DELETE_TAG, "Could not commit chanhes of local repository.", e);
-    }
-
-    if (request.push()) {
-      PushRequest pr = PushRequest.builder().mergeStrategy(request.getMergeStrategy())
-          .mergeClient(request.getMergeClient().orNull()).build();
-      push(pr);
-      newRevision = getLatestRemoteRevision();
+      throw new ScmException(ScmOperation.COMMIT, "Could not commit changes of local repository.", e);
     }
-
-    if (this.log.isLoggable(Level.INFO)) {
-      this.log.info(LOG_PREFIX + "Commit finished successfully. New revision is: " + newRevision);
-    }
-
-    return newRevision;
   }
 
   @Override
@@ -445,42 +607,12 @@ public class ScmProviderGit implements ScmProvider {
     String connectionUrl = this.util.getConnectionUrlOfRemote(remoteName);
     // TODO update paths only?
 
-    if (this.log.isLoggable(Level.FINE)) {
-      this.log.fine(LOG_PREFIX + "Fetching remote updates.");
-      StringBuilder message = new StringBuilder(LOG_PREFIX).append("Fetch info:\n");
-      message.append("\t- WORKING_DIR: ").append(this.workingDir.getAbsolutePath()).append('\n');
-      message.append("\t- REMOTE: ").append(remoteName).append('\n');
-      message.append("\t- REMOTE_URL: ").append(connectionUrl);
-      this.log.fine(message.toString());
-    }
-
-    try {
-      FetchCommand fetch = this.git.fetch().setRemote(remoteName).setTagOpt(TagOpt.AUTO_FOLLOW)
-          .setRemoveDeletedRefs(true);
-      setAuthenticationDetails(fetch);
-      fetch.call();
-    } catch (GitAPIException e) {
-      throw new ScmException(ScmOperation.UPDATE,
-          "Could not fetch changes from Git remote '" + remoteName + " [" + connectionUrl + "]'.", e);
-    }
+    fetch(remoteName, connectionUrl);
 
     MergeCommand merge = this.git.merge().setFastForward(FastForwardMode.FF).setCommit(true).setMessage("Merge");
-    switch (request.getMergeStrategy()) {
-      case USE_LOCAL:
-        merge.setStrategy(MergeStrategy.OURS);
-        break;
-      case USE_REMOTE:
-        merge.setStrategy(MergeStrategy.THEIRS);
-        break;
-      case FULL_MERGE:
-        merge.setStrategy(new UnleashGitFullMergeStrategy(request.getMergeClient().get()));
-        break;
-      case DO_NOT_MERGE:
-        // nothing to do here!
-        break;
-      default:
-        throw new UnsupportedOperationException(
-            "Unknown merge strategy! API and implementation versions are incompatible!");
+    MergeStrategy strategy = getMergeStrategy(request);
+    if (strategy != null) {
+      merge.setStrategy(strategy);
     }
 
     String requestedRevision = request.getTargetRevision().or(getLatestRemoteRevision());
@@ -505,7 +637,10 @@ public class ScmProviderGit implements ScmProvider {
     }
 
     try {
-      merge.call();
+      MergeResult result = merge.call();
+      if (result.getConflicts() != null) {
+        markChanged(result.getConflicts().keySet());
+      }
     } catch (GitAPIException e) {
       throw new ScmException(ScmOperation.MERGE, "Could not merge changes fetched from Git remote '" + remoteName + " ["
           + connectionUrl + "]' into local working copy '" + this.workingDir.getAbsolutePath() + "'.", e);
@@ -518,6 +653,145 @@ public class ScmProviderGit implements ScmProvider {
     return newRevision;
   }
 
+  /**
+   * Checks whether the remote changes can be merged into the local working copy without actually merging them. The
+   * remote changes are fetched and merged in-core using the merge strategy of the request so that neither the working
+   * tree nor the index are touched. Use this prior to {@link #update(UpdateRequest)} or {@link #push(PushRequest)} in
+   * order to avoid a merge into the working copy that fails halfway and has to be rolled back.
+   *
+   * @param request the update request that shall be checked.
+   * @return the result of the in-core merge.
+   */
+  public MergePreflightResult preflightUpdate(UpdateRequest request) throws ScmException {
+    if (this.log.isLoggable(Level.INFO)) {
+      this.log.info(LOG_PREFIX + "Checking whether remote changes can be merged into the local working copy.");
+    }
+
+    String localBranchName = this.util.getCurrentBranchName();
+    String remoteName = this.util.getRemoteName(localBranchName);
+    String connectionUrl = this.util.getConnectionUrlOfRemote(remoteName);
+    fetch(remoteName, connectionUrl);
+
+    String requestedRevision = request.getTargetRevision().or(getLatestRemoteRevision());
+    RevCommit target = resolveRevision(requestedRevision, ScmOperation.MERGE);
+    Repository repo = this.git.getRepository();
+    long start = System.currentTimeMillis();
+
+    MergePreflightResult result;
+    RevWalk walk = new RevWalk(repo);
+    try {
+      ObjectId headId = repo.resolve(Constants.HEAD);
+      if (headId == null) {
+        result = new MergePreflightResult(MergePreflightResult.Status.FAST_FORWARD, target.getName(),
+            Collections.<String> emptyList(), Collections.<String> emptySet(), 0, 0, 0);
+      } else {
+        RevCommit head = walk.parseCommit(headId);
+        RevCommit remote = walk.parseCommit(target);
+        RevCommit base;
+        try {
+          base = this.mergeBaseCache.getMergeBase(walk, head, remote);
+        } catch (NoMergeBaseException e) {
+          // multiple merge bases, neither of the commits is an ancestor of the other one
+          base = null;
+        }
+        if (remote.equals(base)) {
+          result = new MergePreflightResult(MergePreflightResult.Status.UP_TO_DATE, target.getName(),
+              Collections.<String> emptyList(), Collections.<String> emptySet(), 0, 0,
+              System.currentTimeMillis() - start);
+        } else if (head.equals(base)) {
+          result = new MergePreflightResult(MergePreflightResult.Status.FAST_FORWARD, target.getName(),
+              Collections.<String> emptyList(), Collections.<String> emptySet(), 0, 0,
+              System.currentTimeMillis() - start);
+        } else {
+          result = preflightMerge(request, head, remote, start);
+        }
+      }
+    } catch (IOException e) {
+      throw new ScmException(ScmOperation.MERGE, "Could not check whether the changes fetched from Git remote '"
+          + remoteName + " [" + connectionUrl + "]' can be merged into the local working copy.", e);
+    } finally {
+      walk.close();
+    }
+
+    if (this.log.isLoggable(Level.INFO)) {
+      this.log.info(LOG_PREFIX + "Merge preflight finished: " + result);
+    }
+    return result;
+  }
+
+  private MergePreflightResult preflightMerge(UpdateRequest request, RevCommit head, RevCommit remote, long start)
+      throws IOException {
+    MergeStrategy strategy = MoreObjects.firstNonNull(getMergeStrategy(request), MergeStrategy.RECURSIVE);
+    Merger merger = strategy.newMerger(this.git.getRepository(), true);
+    boolean clean = merger.merge(head, remote);
+    if (!(merger instanceof ResolveMerger)) {
+      // one-sided strategies never produce conflicts and do not report the paths they touch
+      return new MergePreflightResult(MergePreflightResult.Status.MERGEABLE, remote.getName(),
+          Collections.<String> emptyList(), Collections.<String> emptySet(), 0, 0,
+          System.currentTimeMillis() - start);
+    }
+
+    ResolveMerger resolveMerger = (ResolveMerger) merger;
+    List<String> conflictingPaths = Lists.newArrayList(resolveMerger.getUnmergedPaths());
+    Map<String, MergeFailureReason> failingPaths = resolveMerger.getFailingPaths();
+    if (failingPaths != null) {
+      conflictingPaths.addAll(failingPaths.keySet());
+    }
+
+    Set<String> touchedPaths = Sets.newHashSet(resolveMerger.getModifiedFiles());
+    touchedPaths.addAll(resolveMerger.getToBeCheckedOut().keySet());
+    touchedPaths.addAll(conflictingPaths);
+    Set<String> dirtyPaths = Sets.newTreeSet(Sets.intersection(this.util.getUncommittedChangedPaths(), touchedPaths));
+
+    MergePreflightResult.Status status = clean && conflictingPaths.isEmpty() ? MergePreflightResult.Status.MERGEABLE
+        : MergePreflightResult.Status.CONFLICTING;
+    return new MergePreflightResult(status, remote.getName(), conflictingPaths, dirtyPaths,
+        resolveMerger.getModifiedFiles().size(), resolveMerger.getToBeCheckedOut().size(),
+        System.currentTimeMillis() - start);
+  }
+
+  private void fetch(String remoteName, String connectionUrl) throws ScmException {
+    if (this.log.isLoggable(Level.FINE)) {
+      this.log.fine(LOG_PREFIX + "Fetching remote updates.");
+      StringBuilder message = new StringBuilder(LOG_PREFIX).append("Fetch info:\n");
+      message.append("\t- WORKING_DIR: ").append(this.workingDir.getAbsolutePath()).append('\n');
+      message.append("\t- REMOTE: ").append(remoteName).append('\n');
+      message.append("\t- REMOTE_URL: ").append(connectionUrl);
+      this.log.fine(message.toString());
+    }
+
+    try {
+      FetchCommand fetch = this.git.fetch().setRemote(remoteName).setTagOpt(TagOpt.AUTO_FOLLOW)
+          .setRemoveDeletedRefs(true);
+      setAuthenticationDetails(fetch);
+      fetch.call();
+    } catch (GitAPIException e) {
+      throw new ScmException(ScmOperation.UPDATE,
+          "Could not fetch changes from Git remote '" + remoteName + " [" + connectionUrl + "]'.", e);
+    }
+  }
+
+  /**
+   * @return the merge strategy to use for the request or <code>null</code> if the default strategy shall be used.
+   */
+  private MergeStrategy getMergeStrategy(UpdateRequest request) {
+    switch (request.getMergeStrategy()) {
+      case USE_LOCAL:
+        return MergeStrategy.OURS;
+      case USE_REMOTE:
+        return MergeStrategy.THEIRS;
+      case FULL_MERGE:
+        return new UnleashGitFullMergeStrategy(request.getMergeClient().get(), this.mergeBaseCache,
+            this.mergeDrivers);
+      case DO_NOT_MERGE:
+        // nothing to do here!
+        return null;
+      default:
+        throw new UnsupportedOperationException(
+            "Unknown merge strategy! API and implementation versions are incompatible!");
+    }
+  }
+
   @Override
   public String tag(TagRequest request) throws ScmException {
     if (this.log.isLoggable(Level.INFO)) {
@@ -540,31 +814,32 @@ public class ScmProviderGit implements ScmProvider {
     }
 
     if (request.tagFromWorkingCopy()) {
-      // 1. commit the changes (no merging because we stay local!)
-      String preTagCommitMessage = request.getPreTagCommitMessage()
-          .or("Preparation for tag creation (Tag name: '" + request.getTagName() + "').");
-      Builder builder = CommitRequest.builder().message(preTagCommitMessage);
-      if (request.includeUntrackedFiles()) {
-        builder.includeUntrackedFiles();
-      }
-      commit(builder.build());
+      String preTagCommitMessage = getPreTagCommitMessage(request);
+      if (!request.commitBeforeTagging() && StagingEngine.isApplicable(this.git.getRepository())) {
+        // 1. create the pre-tag commit in-core without touching the index or HEAD
+        RevCommit preTagCommit = commitInCore(preTagCommitMessage, request.includeUntrackedFiles());
+
+        // 2. tag the pre-tag commit
+        createTag(request, preTagCommit);
+      } else {
+        // 1. commit the changes (no merging because we stay local!)
+        Builder builder = CommitRequest.builder().message(preTagCommitMessage);
+        if (request.includeUntrackedFiles()) {
+          builder.includeUntrackedFiles();
+        }
+        commit(builder.build());
 
-      try {
         // 2. tag local revision
-        TagCommand tag = this.git.tag().setName(request.getTagName()).setMessage(request.getMessage())
-            .setAnnotated(true).setTagger(this.personIdent);
-        tag.call();
-      } catch (GitAPIException e) {
-        throw new ScmException(ScmOperation.TAG, "An error occurred during local Git tag creation.", e);
-      }
+        createTag(request, null);
 
-      if (!request.commitBeforeTagging()) {
-        try {
-          // 3. deletes the local commit that had been done for tag creation.
-          this.git.reset().setMode(ResetType.MIXED).setRef(Constants.HEAD + "~1").call();
-        } catch (GitAPIException e) {
-          throw new ScmException(ScmOperation.TAG,
-              "An error occurred during local commit resetting (no pre-tag commit was requested).", e);
+        if (!request.commitBeforeTagging()) {
+          try {
+            // 3. deletes the local commit that had been done for tag creation.
+            this.git.reset().setMode(ResetType.MIXED).setRef(Constants.HEAD + "~1").call();
+          } catch (GitAPIException e) {
+            throw new ScmException(ScmOperation.TAG,
+                "An error occurred during local commit resetting (no pre-tag commit was requested).", e);
+          }
         }
       }
 
@@ -608,6 +883,235 @@ public class ScmProviderGit implements ScmProvider {
     }
   }
 
+  private void createTag(TagRequest request, RevCommit commit) throws ScmException {
+    try {
+      TagCommand tag = this.git.tag().setName(request.getTagName()).setMessage(request.getMessage())
+          .setAnnotated(true).setTagger(this.personIdent);
+      if (commit != null) {
+        tag.setObjectId(commit);
+      }
+      tag.call();
+    } catch (GitAPIException e) {
+      throw new ScmException(ScmOperation.TAG, "An error occurred during local Git tag creation.", e);
+    }
+  }
+
+  private String getPreTagCommitMessage(TagRequest request) {
+    return request.getPreTagCommitMessage()
+        .or("Preparation for tag creation (Tag name: '" + request.getTagName() + "').");
+  }
+
+  /**
+   * Creates several annotated tags at once. The pre-tag commits and the tag objects are written with a single object
+   * inserter, the tag refs are created in one ref transaction and all tags that shall be pushed are pushed in a single
+   * exchange.<br>
+   * The working copy is staged at most once per untracked files setting. Requests that want to keep the pre-tag commit
+   * share a single commit of the working copy which is created before any tag. If one of these requests shall be
+   * pushed, the current branch is updated from the remote and pushed in the same exchange as the tags. Only the tags
+   * of requests that shall be pushed are sent.
+   *
+   * @param requests the tag requests, all of them must tag the working copy.
+   * @return the results of the tag creations in the order of the requests.
+   */
+  public List<RefChangeResult> tag(List<TagRequest> requests) throws ScmException {
+    if (this.log.isLoggable(Level.INFO)) {
+      this.log.info(LOG_PREFIX + "Creating " + requests.size() + " tags in the local repository.");
+    }
+
+    Repository repo = this.git.getRepository();
+    if (!StagingEngine.isApplicable(repo)) {
+      throw new ScmException(ScmOperation.TAG,
+          "Tags cannot be created in a batch while the repository is in state " + repo.getRepositoryState() + ".");
+    }
+
+    TagRequest commitRequest = null;
+    for (TagRequest request : requests) {
+      if (!request.tagFromWorkingCopy()) {
+        throw new UnsupportedOperationException(
+            "This SCM provider doesn't support tagging from remote URLs only. This feature needs some workarounds and is scheduled for a later version.");
+      }
+      if (request.commitBeforeTagging() && commitRequest == null) {
+        commitRequest = request;
+      }
+    }
+
+    if (commitRequest != null) {
+      // 1. commit the changes once for all requests that want to keep the pre-tag commit
+      Builder builder = CommitRequest.builder().message(getPreTagCommitMessage(commitRequest));
+      if (commitRequest.includeUntrackedFiles()) {
+        builder.includeUntrackedFiles();
+      }
+      commit(builder.build());
+    }
+
+    RefChangeResult[] results = new RefChangeResult[requests.size()];
+    List<ReceiveCommand> commands = Lists.newArrayList();
+    List<Integer> commandIndexes = Lists.newArrayList();
+    ObjectInserter inserter = repo.newObjectInserter();
+    RevWalk walk = new RevWalk(repo);
+    try {
+      // 2. create the pre-tag commits and the tag objects
+      Set<String> tagNames = Sets.newHashSet();
+      StagingEngine engine = new StagingEngine(repo).setUpdateIndex(false);
+      StagingResult[] stagingResults = new StagingResult[2];
+      for (int i = 0; i < requests.size(); i++) {
+        TagRequest request = requests.get(i);
+        String refName = GitUtil.TAG_NAME_PREFIX + request.getTagName();
+        if (!Repository.isValidRefName(refName)) {
+          results[i] = new RefChangeResult(request.getTagName(), RefChangeResult.Status.REJECTED, null,
+              "Invalid tag name.");
+          continue;
+        }
+        if (!tagNames.add(request.getTagName()) || repo.exactRef(refName) != null) {
+          results[i] = new RefChangeResult(request.getTagName(), RefChangeResult.Status.REJECTED, null,
+              "A tag with this name already exists.");
+          continue;
+        }
+
+        ObjectId commitId;
+        int stagingIndex = request.includeUntrackedFiles() ? 1 : 0;
+        if (request.commitBeforeTagging()) {
+          commitId = repo.resolve(Constants.HEAD);
+        } else {
+          if (stagingResults[stagingIndex] == null) {
+            stagingResults[stagingIndex] = engine.setIncludeUntracked(request.includeUntrackedFiles()).stage();
+          }
+          StagingResult staged = stagingResults[stagingIndex];
+          commitId = staged.isDirty()
+              ? engine.insertCommit(staged, getPreTagCommitMessage(request), this.personIdent, inserter)
+              : staged.getHeadId();
+        }
+        if (commitId == null) {
+          throw new ScmException(ScmOperation.TAG, "The local repository does not contain any commits.");
+        }
+
+        TagBuilder tag = new TagBuilder();
+        tag.setTag(request.getTagName());
+        tag.setObjectId(commitId, Constants.OBJ_COMMIT);
+        tag.setTagger(this.personIdent);
+        tag.setMessage(request.getMessage());
+        commands.add(new ReceiveCommand(ObjectId.zeroId(), inserter.insert(tag), refName));
+        commandIndexes.add(i);
+      }
+      inserter.flush();
+
+      // 3. create all tag refs in one transaction
+      BatchRefUpdate batch = repo.getRefDatabase().newBatchUpdate();
+      batch.setAtomic(false);
+      batch.setRefLogIdent(this.personIdent);
+      batch.setRefLogMessage("tag", true);
+      batch.addCommand(commands);
+      batch.execute(walk, NullProgressMonitor.INSTANCE);
+    } catch (IOException e) {
+      throw new ScmException(ScmOperation.TAG, "An error occurred during local Git tag creation.", e);
+    } finally {
+      walk.close();
+      inserter.close();
+    }
+
+    List<String> tagsToPush = Lists.newArrayList();
+    for (int i = 0; i < commands.size(); i++) {
+      ReceiveCommand command = commands.get(i);
+      int index = commandIndexes.get(i);
+      TagRequest request = requests.get(index);
+      if (command.getResult() == ReceiveCommand.Result.OK) {
+        results[index] = new RefChangeResult(request.getTagName(), RefChangeResult.Status.OK,
+            command.getNewId().name(), null);
+        if (request.push()) {
+          tagsToPush.add(command.getRefName());
+        }
+      } else {
+        results[index] = new RefChangeResult(request.getTagName(), RefChangeResult.Status.REJECTED, null,
+            MoreObjects.firstNonNull(command.getMessage(), command.getResult().name()));
+      }
+    }
+
+    // 4. push the branch containing the kept pre-tag commit and the tags in a single exchange
+    TagRequest branchPushRequest = null;
+    for (TagRequest request : requests) {
+      if (request.commitBeforeTagging() && request.push()) {
+        branchPushRequest = request;
+        break;
+      }
+    }
+
+    List<String> refSpecs = Lists.newArrayList(tagsToPush);
+    String remoteBranchName = null;
+    if (branchPushRequest != null) {
+      // integrate the remote changes first, just like push(PushRequest) does
+      UpdateRequest ur = UpdateRequest.builder().mergeStrategy(branchPushRequest.getMergeStrategy())
+          .mergeClient(branchPushRequest.getMergeClient().orNull()).build();
+      update(ur);
+
+      String localBranchName = this.util.getCurrentBranchName();
+      remoteBranchName = this.util.getRemoteBranchName(localBranchName);
+      refSpecs.add(GitUtil.HEADS_NAME_PREFIX + localBranchName + ":" + remoteBranchName);
+    }
+
+    if (!refSpecs.isEmpty()) {
+      Map<String, RemoteRefUpdate> updates = pushRefSpecs(refSpecs, ScmOperation.PUSH);
+      RemoteRefUpdate branchUpdate = remoteBranchName != null ? updates.get(remoteBranchName) : null;
+      for (int i = 0; i < results.length; i++) {
+        TagRequest request = requests.get(i);
+        if (!results[i].isSuccess() || !request.push()) {
+          continue;
+        }
+
+        RemoteRefUpdate update = updates.get(GitUtil.TAG_NAME_PREFIX + results[i].getName());
+        if (isPushFailure(update)) {
+          results[i] = getPushFailedResult(results[i], update);
+        } else if (request.commitBeforeTagging() && isPushFailure(branchUpdate)) {
+          // the tag has been pushed but the branch does not contain the pre-tag commit
+          results[i] = getPushFailedResult(results[i], branchUpdate);
+        }
+      }
+    }
+
+    if (this.log.isLoggable(Level.INFO)) {
+      this.log.info(LOG_PREFIX + "Batch tag creation finished: " + Joiner.on(", ").join(results));
+    }
+    return Lists.newArrayList(results);
+  }
+
+  private static boolean isPushFailure(RemoteRefUpdate update) {
+    return update == null || (update.getStatus() != Status.OK && update.getStatus() != Status.UP_TO_DATE);
+  }
+
+  private static RefChangeResult getPushFailedResult(RefChangeResult result, RemoteRefUpdate update) {
+    String message = update != null ? "[" + update.getStatus() + "] " + Strings.nullToEmpty(update.getMessage())
+        : "The remote did not report a result.";
+    return new RefChangeResult(result.getName(), RefChangeResult.Status.PUSH_FAILED, result.getObjectId().orNull(),
+        message);
+  }
+
+  /**
+   * Pushes the passed refspecs to the remote of the current branch in a single exchange.
+   *
+   * @return the remote ref updates by remote ref name.
+   */
+  private Map<String, RemoteRefUpdate> pushRefSpecs(Collection<String> refSpecs, ScmOperation operation)
+      throws ScmException {
+    String localBranchName = this.util.getCurrentBranchName();
+    String remoteName = this.util.getRemoteName(localBranchName);
+    Map<String, RemoteRefUpdate> updates = Maps.newHashMap();
+    try {
+      PushCommand push = this.git.push().setRemote(remoteName);
+      for (String refSpec : refSpecs) {
+        push.add(refSpec);
+      }
+      setAuthenticationDetails(push);
+      for (PushResult result : push.call()) {
+        for (RemoteRefUpdate update : result.getRemoteUpdates()) {
+          updates.put(update.getRemoteName(), update);
+        }
+      }
+    } catch (GitAPIException e) {
+      throw new ScmException(operation, "Unable to push to remote '" + remoteName + "["
+          + this.util.getConnectionUrlOfRemote(remoteName) + "]'.", e);
+    }
+    return updates;
+  }
+
   @Override
   public boolean hasTag(String tagName) throws ScmException {
     if (this.log.isLoggable(Level.INFO)) {
@@ -650,65 +1154,184 @@ public class ScmProviderGit implements ScmProvider {
       this.log.info(LOG_PREFIX + "Deleting Git tag");
     }
 
+    if (this.log.isLoggable(Level.FINE)) {
+      String remoteName = this.util.getRemoteName(this.util.getCurrentBranchName());
+      StringBuilder message = new StringBuilder(LOG_PREFIX).append("Tag info:\n");
+      message.append("\t- TAG_NAME: ").append(request.getTagName()).append('\n');
+      message.append("\t- REMOTE: ").append(remoteName).append('\n');
+      message.append("\t- REMOTE_URL: ").append(this.util.getConnectionUrlOfRemote(remoteName));
+      this.log.fine(message.toString());
+    }
+
+    RefDeletion deletion = deleteRefs(GitUtil.TAG_NAME_PREFIX, Collections.singleton(request.getTagName()),
+        request.push(), ScmOperation.DELETE_TAG);
+    RefChangeResult result = deletion.results.get(0);
+    if (result.getStatus() == RefChangeResult.Status.REJECTED
+        || result.getStatus() == RefChangeResult.Status.PUSH_FAILED) {
+      throw new ScmException(ScmOperation.DELETE_TAG, "An error occurred during the deletion of tag '"
+          + request.getTagName() + "': " + result.getMessage().orNull());
+    }
+    return deletion.remoteRevision;
+  }
+
+  /**
+   * Deletes several tags locally and in the remote repository. The existence of the remote tags is determined from a
+   * single ref advertisement and all remote deletions are sent in the same exchange, no objects are fetched.
+   *
+   * @param tagNames the names of the tags to delete.
+   * @param push <code>true</code> if the tags shall be deleted remotely right away, otherwise the remote deletions are
+   *          scheduled for the next push.
+   * @return the results of the deletions in the order of the tag names.
+   */
+  public List<RefChangeResult> deleteTags(Collection<String> tagNames, boolean push) throws ScmException {
+    if (this.log.isLoggable(Level.INFO)) {
+      this.log.info(LOG_PREFIX + "Deleting " + tagNames.size() + " Git tags");
+    }
+
+    List<RefChangeResult> results = deleteRefs(GitUtil.TAG_NAME_PREFIX, tagNames, push,
+        ScmOperation.DELETE_TAG).results;
+    if (this.log.isLoggable(Level.INFO)) {
+      this.log.info(LOG_PREFIX + "Tag deletion finished: " + Joiner.on(", ").join(results));
+    }
+    return results;
+  }
+
+  /**
+   * Deletes refs locally and from the remote of the current branch. The remote refs are looked up in the advertisement
+   * of the connection that is also used to push the deletions, so the remote is contacted only once and no objects
+   * are downloaded. Local refs are deleted in one ref transaction before the remote deletions are sent.
+   */
+  private RefDeletion deleteRefs(String prefix, Collection<String> names, boolean push, ScmOperation operation)
+      throws ScmException {
+    Repository repo = this.git.getRepository();
     String localBranchName = this.util.getCurrentBranchName();
     String remoteName = this.util.getRemoteName(localBranchName);
-    String remoteUrl = this.util.getConnectionUrlOfRemote(remoteName);
+    String remoteBranchName = this.util.getRemoteBranchName(localBranchName);
 
-    boolean hasRemoteTag = hasTag(request.getTagName());
-    // 1. fetch the tag from remote if it is not known locally and the remote one exists
-    if (!this.util.hasLocalTag(request.getTagName()) && hasRemoteTag) {
-      if (this.log.isLoggable(Level.FINE)) {
-        this.log.fine(LOG_PREFIX + "Fetching remote tag");
-      }
-      try {
-        FetchCommand fetch = this.git.fetch().setRemote(remoteName).setTagOpt(TagOpt.FETCH_TAGS);
-        setAuthenticationDetails(fetch);
-        fetch.call();
-      } catch (GitAPIException e) {
-        throw new ScmException(ScmOperation.DELETE_TAG, "Unable to fetch tags for deletion of tag '"
-            + request.getTagName() + "' from remote '" + remoteName + "[" + remoteUrl + "]'.", e);
-      }
+    Set<String> refNames = Sets.newLinkedHashSet();
+    for (String name : names) {
+      refNames.add(prefix + name);
     }
 
-    // proceed only if tag exists locally (if this is not the case at this point, it doesn't exist remotely either)
-    if (this.util.hasLocalTag(request.getTagName())) {
-      if (this.log.isLoggable(Level.FINE)) {
-        StringBuilder message = new StringBuilder(LOG_PREFIX).append("Tag info:\n");
-        message.append("\t- TAG_NAME: ").append(request.getTagName()).append('\n');
-        message.append("\t- REMOTE: ").append(remoteName).append('\n');
-        message.append("\t- REMOTE_URL: ").append(remoteUrl);
-        this.log.fine(message.toString());
+    Transport transport = null;
+    Connection connection = null;
+    try {
+      // 1. retrieve the state of the remote refs from a single advertisement
+      Map<String, Ref> remoteRefs = Collections.emptyMap();
+      if (remoteName != null) {
+        transport = Transport.open(repo, remoteName);
+        configureTransport(transport);
+        connection = push ? transport.openPush() : transport.openFetch();
+        remoteRefs = connection.getRefsMap();
       }
 
-      try {
-        // 2. delete the tag locally
-        DeleteTagCommand deleteTag = this.git.tagDelete().setTags(GitUtil.TAG_NAME_PREFIX + request.getTagName());
-        deleteTag.call();
-      } catch (GitAPIException e) {
-        throw new ScmException(ScmOperation.DELETE_TAG,
-            "An error occurred during the local deletion of tag '" + request.getTagName() + "'.", e);
+      // 2. delete the local refs in one transaction
+      Map<String, ReceiveCommand> localDeletions = Maps.newHashMap();
+      for (String refName : refNames) {
+        Ref ref = repo.exactRef(refName);
+        if (ref != null) {
+          localDeletions.put(refName, new ReceiveCommand(ref.getObjectId(), ObjectId.zeroId(), refName));
+        }
       }
-
-      try {
-        // 3. if the tag exists in the remote repository the remote tag gets either deletet or will be scheduled for
-        // deletion on next push
-        if (hasRemoteTag) {
-          String tagPushName = ":" + GitUtil.TAG_NAME_PREFIX + request.getTagName();
-          if (request.push()) {
-            PushCommand push = this.git.push().setRemote(remoteName).add(tagPushName);
-            setAuthenticationDetails(push);
-            push.call();
-          } else {
-            this.additionalThingsToPush.add(tagPushName);
+      deleteLocalRefs(localDeletions.values());
+
+      // 3. delete the remote refs or schedule their deletion for the next push
+      Map<String, RemoteRefUpdate> remoteDeletions = Maps.newLinkedHashMap();
+      for (String refName : refNames) {
+        Ref remoteRef = remoteRefs.get(refName);
+        ReceiveCommand local = localDeletions.get(refName);
+        if (remoteRef == null || (local != null && local.getResult() != ReceiveCommand.Result.OK)) {
+          continue;
+        }
+        if (push) {
+          remoteDeletions.put(refName,
+              new RemoteRefUpdate(repo, (String) null, refName, false, null, remoteRef.getObjectId()));
+        } else {
+          this.additionalThingsToPush.add(":" + refName);
+        }
+      }
+      if (!remoteDeletions.isEmpty()) {
+        ((PushConnection) connection).push(NullProgressMonitor.INSTANCE, remoteDeletions);
+
+        // 4. drop the remote tracking refs of the refs that have been deleted remotely
+        List<ReceiveCommand> trackingDeletions = Lists.newArrayList();
+        List<RefSpec> fetchRefSpecs = new RemoteConfig(repo.getConfig(), remoteName).getFetchRefSpecs();
+        for (RemoteRefUpdate update : remoteDeletions.values()) {
+          if (update.getStatus() != Status.OK) {
+            continue;
+          }
+          for (RefSpec spec : fetchRefSpecs) {
+            if (spec.matchSource(update.getRemoteName()) && spec.getDestination() != null) {
+              Ref trackingRef = repo.exactRef(spec.expandFromSource(update.getRemoteName()).getDestination());
+              if (trackingRef != null) {
+                trackingDeletions
+                    .add(new ReceiveCommand(trackingRef.getObjectId(), ObjectId.zeroId(), trackingRef.getName()));
+              }
+            }
           }
         }
-      } catch (GitAPIException e) {
-        throw new ScmException(ScmOperation.DELETE_TAG, "An error occurred during the deletion of tag '"
-            + request.getTagName() + "' from remote '" + remoteName + "[" + remoteUrl + "]'.", e);
+        deleteLocalRefs(trackingDeletions);
       }
+
+      RefDeletion deletion = new RefDeletion();
+      Ref remoteBranch = remoteRefs.get(remoteBranchName);
+      deletion.remoteRevision = remoteBranch != null ? remoteBranch.getObjectId().getName() : "";
+      for (String refName : refNames) {
+        deletion.results.add(getDeletionResult(refName.substring(prefix.length()), localDeletions.get(refName),
+            remoteRefs.get(refName), remoteDeletions.get(refName)));
+      }
+      return deletion;
+    } catch (IOException e) {
+      throw new ScmException(operation,
+          "Unable to delete the refs " + refNames + " from the local repository and remote '" + remoteName + "'.", e);
+    } catch (URISyntaxException e) {
+      throw new ScmException(operation, "Unable to connect to remote '" + remoteName + "'.", e);
+    } finally {
+      if (connection != null) {
+        connection.close();
+      }
+      if (transport != null) {
+        transport.close();
+      }
+    }
+  }
+
+  private void deleteLocalRefs(Collection<ReceiveCommand> deletions) throws IOException {
+    if (deletions.isEmpty()) {
+      return;
     }
 
-    return getLatestRemoteRevision();
+    Repository repo = this.git.getRepository();
+    RevWalk walk = new RevWalk(repo);
+    try {
+      BatchRefUpdate batch = repo.getRefDatabase().newBatchUpdate();
+      batch.setAtomic(false);
+      batch.setRefLogIdent(this.personIdent);
+      batch.setRefLogMessage("delete", true);
+      batch.addCommand(deletions);
+      batch.execute(walk, NullProgressMonitor.INSTANCE);
+    } finally {
+      walk.close();
+    }
+  }
+
+  private RefChangeResult getDeletionResult(String name, ReceiveCommand local, Ref remoteRef,
+      RemoteRefUpdate remoteDeletion) {
+    if (local == null && remoteRef == null) {
+      return new RefChangeResult(name, RefChangeResult.Status.NOT_FOUND, null, null);
+    }
+
+    String objectId = local != null ? local.getOldId().name() : remoteRef.getObjectId().name();
+    if (local != null && local.getResult() != ReceiveCommand.Result.OK) {
+      return new RefChangeResult(name, RefChangeResult.Status.REJECTED, objectId,
+          MoreObjects.firstNonNull(local.getMessage(), local.getResult().name()));
+    }
+    if (remoteDeletion != null && remoteDeletion.getStatus() != Status.OK
+        && remoteDeletion.getStatus() != Status.NON_EXISTING) {
+      return new RefChangeResult(name, RefChangeResult.Status.PUSH_FAILED, objectId,
+          "[" + remoteDeletion.getStatus() + "] " + Strings.nullToEmpty(remoteDeletion.getMessage()));
+    }
+    return new RefChangeResult(name, RefChangeResult.Status.OK, objectId, null);
   }
 
   @Override
@@ -738,16 +1361,88 @@ public class ScmProviderGit implements ScmProvider {
         throw new ScmException(ScmOperation.BRANCH, "A local branch with this name already exists!");
       }
 
-      if (hasBranch(request.getBranchName())) {
-        // QUESTION eventually fetch branch and create a local one tracking this one instead?
-        throw new ScmException(ScmOperation.BRANCH, "A remote branch with this name already exists!");
+      Repository repo = this.git.getRepository();
+      String branchRefName = GitUtil.HEADS_NAME_PREFIX + request.getBranchName();
+      String remoteName = this.util.getRemoteName(this.util.getCurrentBranchName());
+      // the advertisement of a single connection is used to check for the remote branch and, if no pre-branch commit
+      // shall be kept, the new branch is pushed over the same connection
+      boolean pushBranch = request.push() && !request.commitBeforeBranching();
+      Transport transport = null;
+      Connection connection = null;
+      try {
+        if (remoteName != null) {
+          transport = Transport.open(repo, remoteName);
+          configureTransport(transport);
+          connection = pushBranch ? transport.openPush() : transport.openFetch();
+          if (connection.getRef(branchRefName) != null) {
+            // QUESTION eventually fetch branch and create a local one tracking this one instead?
+            throw new ScmException(ScmOperation.BRANCH, "A remote branch with this name already exists!");
+          }
+          if (!pushBranch) {
+            connection.close();
+            connection = null;
+          }
+        }
+
+        createLocalBranch(request);
+
+        String newRevision;
+        if (pushBranch) {
+          newRevision = pushBranch(remoteName, (PushConnection) connection, branchRefName);
+        } else if (request.push()) {
+          // if the commit shall be kept, push everything with update of the local WC!
+          PushRequest pr = PushRequest.builder().mergeStrategy(request.getMergeStrategy())
+              .mergeClient(request.getMergeClient().orNull()).build();
+          newRevision = push(pr);
+        } else {
+          newRevision = getLocalRevision();
+        }
+
+        if (this.log.isLoggable(Level.INFO)) {
+          this.log.info(LOG_PREFIX + "Branch creation finished successfully. New revision is: " + newRevision);
+        }
+        return newRevision;
+      } catch (IOException e) {
+        throw new ScmException(ScmOperation.BRANCH,
+            "Unable to query remote '" + remoteName + "' for branch '" + request.getBranchName() + "'.", e);
+      } catch (URISyntaxException e) {
+        throw new ScmException(ScmOperation.BRANCH, "Unable to connect to remote '" + remoteName + "'.", e);
+      } finally {
+        if (connection != null) {
+          connection.close();
+        }
+        if (transport != null) {
+          transport.close();
+        }
       }
+    } else {
+      // TODO implement remote branching -> similar to remote tagging!
+      throw new UnsupportedOperationException(
+          "This SCM provider doesn't support tagging from remote URLs only. This feature needs some workarounds and is scheduled for a later version.");
+    }
+  }
 
+  /**
+   * Creates the local branch of a branch request either from the requested revision or from the working copy.
+   */
+  private void createLocalBranch(BranchRequest request) throws ScmException {
+    String preBranchCommitMessage = request.getPreBranchCommitMessage() != null
+        ? request.getPreBranchCommitMessage()
+        : request.getMessage();
+    if (!request.commitBeforeBranching() && StagingEngine.isApplicable(this.git.getRepository())) {
+      // 1. create the pre-branch commit in-core without touching the index or HEAD (only if branching from WC)
+      RevCommit startPoint;
+      if (request.getRevision().isPresent()) {
+        startPoint = resolveRevision(request.getRevision().get(), ScmOperation.BRANCH);
+      } else {
+        startPoint = commitInCore(preBranchCommitMessage, false);
+      }
+
+      // 2. point the new branch to the pre-branch commit
+      createBranchRef(request.getBranchName(), startPoint);
+    } else {
       // 1. commit the changes if branching from WC is requested(no merging!)
       if (!request.getRevision().isPresent()) {
-        String preBranchCommitMessage = request.getPreBranchCommitMessage() != null
-            ? request.getPreBranchCommitMessage()
-            : request.getMessage();
         CommitRequest cr = CommitRequest.builder().message(preBranchCommitMessage).noMerge().build();
         commit(cr);
       }
@@ -771,41 +1466,83 @@ public class ScmProviderGit implements ScmProvider {
               "An error occurred during local commit resetting (no pre-branch commit was requested).", e);
         }
       }
+    }
+  }
 
-      String branchPushName = GitUtil.HEADS_NAME_PREFIX + request.getBranchName();
-      String newRevision;
-      if (request.push()) {
-        if (request.commitBeforeBranching()) {
-          // if the commit shall be kept, push everything with update of the local WC!
-          PushRequest pr = PushRequest.builder().mergeStrategy(request.getMergeStrategy())
-              .mergeClient(request.getMergeClient().orNull()).build();
-          newRevision = push(pr);
-        } else {
-          String localBranchName = this.util.getCurrentBranchName();
-          String remoteName = this.util.getRemoteName(localBranchName);
-          String connectionUrl = this.util.getConnectionUrlOfRemote(remoteName);
-          try {
-            PushCommand push = this.git.push().setRemote(remoteName).add(branchPushName);
-            setAuthenticationDetails(push);
-            push.call();
-            newRevision = getLatestRemoteRevision();
-          } catch (GitAPIException e) {
-            throw new ScmException(ScmOperation.PUSH, "Unable to push locally created branch '"
-                + request.getBranchName() + "' to remote '" + remoteName + "[" + connectionUrl + "]+'.", e);
-          }
+  /**
+   * Pushes a newly created local branch over a connection that has been opened already. The push only succeeds if
+   * the branch doesn't exist remotely and the remote tracking branch is updated afterwards.
+   *
+   * @return the remote revision of the current branch as advertised by the connection.
+   */
+  private String pushBranch(String remoteName, PushConnection connection, String branchRefName)
+      throws ScmException {
+    if (connection == null) {
+      throw new ScmException(ScmOperation.PUSH,
+          "Unable to push locally created branch '" + branchRefName + "' since the current branch has no remote.");
+    }
+
+    Repository repo = this.git.getRepository();
+    try {
+      RemoteRefUpdate update = new RemoteRefUpdate(repo, branchRefName, branchRefName, false, null,
+          ObjectId.zeroId());
+      connection.push(NullProgressMonitor.INSTANCE, Collections.singletonMap(branchRefName, update));
+      if (update.getStatus() != Status.OK) {
+        throw new ScmException(ScmOperation.PUSH,
+            "Unable to push locally created branch '" + branchRefName + "' to remote '" + remoteName + "' ["
+                + update.getStatus() + "] " + Strings.nullToEmpty(update.getMessage()));
+      }
+
+      for (RefSpec spec : new RemoteConfig(repo.getConfig(), remoteName).getFetchRefSpecs()) {
+        if (spec.matchSource(branchRefName) && spec.getDestination() != null) {
+          RefUpdate trackingUpdate = repo.updateRef(spec.expandFromSource(branchRefName).getDestination());
+          trackingUpdate.setNewObjectId(update.getNewObjectId());
+          trackingUpdate.setRefLogMessage("update by push", false);
+          trackingUpdate.forceUpdate();
         }
-      } else {
-        newRevision = getLocalRevision();
       }
+    } catch (IOException e) {
+      throw new ScmException(ScmOperation.PUSH,
+          "Unable to push locally created branch '" + branchRefName + "' to remote '" + remoteName + "'.", e);
+    } catch (URISyntaxException e) {
+      throw new ScmException(ScmOperation.PUSH, "Unable to read the configuration of remote '" + remoteName + "'.",
+          e);
+    }
 
-      if (this.log.isLoggable(Level.INFO)) {
-        this.log.info(LOG_PREFIX + "Branch creation finished successfully. New revision is: " + newRevision);
+    Ref remoteBranch = connection.getRef(this.util.getRemoteBranchName(this.util.getCurrentBranchName()));
+    return remoteBranch != null ? remoteBranch.getObjectId().getName() : "";
+  }
+
+  private RevCommit resolveRevision(String revision, ScmOperation operation) throws ScmException {
+    Repository repo = this.git.getRepository();
+    RevWalk walk = new RevWalk(repo);
+    try {
+      ObjectId id = repo.resolve(revision);
+      if (id == null) {
+        throw new ScmException(operation, "Could not resolve revision '" + revision + "'.");
       }
-      return newRevision;
-    } else {
-      // TODO implement remote branching -> similar to remote tagging!
-      throw new UnsupportedOperationException(
-          "This SCM provider doesn't support tagging from remote URLs only. This feature needs some workarounds and is scheduled for a later version.");
+      return walk.parseCommit(id);
+    } catch (IOException e) {
+      throw new ScmException(operation, "Could not resolve revision '" + revision + "'.", e);
+    } finally {
+      walk.close();
+    }
+  }
+
+  private void createBranchRef(String branchName, RevCommit startPoint) throws ScmException {
+    try {
+      RefUpdate update = this.git.getRepository().updateRef(GitUtil.HEADS_NAME_PREFIX + branchName);
+      update.setNewObjectId(startPoint);
+      update.setExpectedOldObjectId(ObjectId.zeroId());
+      update.setRefLogMessage("branch: Created from " + startPoint.abbreviate(7).name(), false);
+      Result result = update.update();
+      if (result != Result.NEW) {
+        throw new ScmException(ScmOperation.BRANCH, "Could not create local branch '" + branchName
+            + "' in working copy '" + this.workingDir.getAbsolutePath() + "' (" + result + ").");
+      }
+    } catch (IOException e) {
+      throw new ScmException(ScmOperation.BRANCH, "Could not create local branch '" + branchName
+          + "' in working copy '" + this.workingDir.getAbsolutePath() + "'", e);
     }
   }
 
@@ -862,31 +1599,38 @@ public class ScmProviderGit implements ScmProvider {
       this.log.fine(message.toString());
     }
 
-    if (this.util.hasLocalBranch(request.getBranchName())) {
-      try {
-        this.git.branchDelete().setBranchNames(GitUtil.HEADS_NAME_PREFIX + request.getBranchName()).setForce(true)
-            .call();
-      } catch (GitAPIException e) {
-        e.printStackTrace();
-      }
+    RefDeletion deletion = deleteRefs(GitUtil.HEADS_NAME_PREFIX, Collections.singleton(request.getBranchName()),
+        request.push(), ScmOperation.BRANCH);
+    RefChangeResult result = deletion.results.get(0);
+    if (result.getStatus() == RefChangeResult.Status.REJECTED
+        || result.getStatus() == RefChangeResult.Status.PUSH_FAILED) {
+      throw new ScmException(ScmOperation.BRANCH, "An error occurred during the deletion of branch '"
+          + request.getBranchName() + "': " + result.getMessage().orNull());
     }
+    return deletion.remoteRevision;
+  }
 
-    if (hasBranch(request.getBranchName())) {
-      if (request.push()) {
-        try {
-          PushCommand push = this.git.push().setRemote(remoteName)
-              .add(":" + GitUtil.HEADS_NAME_PREFIX + request.getBranchName());
-          setAuthenticationDetails(push);
-          push.call();
-        } catch (GitAPIException e) {
-          e.printStackTrace();
-        }
-      } else {
-        this.additionalThingsToPush.add(":" + GitUtil.HEADS_NAME_PREFIX + request.getBranchName());
-      }
+  /**
+   * Deletes several branches locally and in the remote repository. The existence of the remote branches is determined
+   * from a single ref advertisement, the local branches are deleted in one ref transaction and all remote deletions
+   * are sent in the same exchange.
+   *
+   * @param branchNames the names of the branches to delete.
+   * @param push <code>true</code> if the branches shall be deleted remotely right away, otherwise the remote
+   *          deletions are scheduled for the next push.
+   * @return the results of the deletions in the order of the branch names.
+   */
+  public List<RefChangeResult> deleteBranches(Collection<String> branchNames, boolean push) throws ScmException {
+    if (this.log.isLoggable(Level.INFO)) {
+      this.log.info(LOG_PREFIX + "Deleting " + branchNames.size() + " Git branches");
     }
 
-    return getLatestRemoteRevision();
+    List<RefChangeResult> results = deleteRefs(GitUtil.HEADS_NAME_PREFIX, branchNames, push,
+        ScmOperation.BRANCH).results;
+    if (this.log.isLoggable(Level.INFO)) {
+      this.log.info(LOG_PREFIX + "Branch deletion finished: " + Joiner.on(", ").join(results));
+    }
+    return results;
   }
 
   @Override
@@ -938,7 +1682,8 @@ public class ScmProviderGit implements ScmProvider {
           revert.setStrategy(MergeStrategy.THEIRS);
           break;
         case FULL_MERGE:
-          revert.setStrategy(new UnleashGitFullMergeStrategy(request.getMergeClient().get()));
+          revert.setStrategy(new UnleashGitFullMergeStrategy(request.getMergeClient().get(), this.mergeBaseCache,
+              this.mergeDrivers));
           break;
         case DO_NOT_MERGE:
           // nothing to do here!
@@ -948,6 +1693,9 @@ public class ScmProviderGit implements ScmProvider {
               "Unknown merge strategy! API and implementation versions are incompatible!");
       }
       revert.call();
+      if (revert.getUnmergedPaths() != null) {
+        markChanged(revert.getUnmergedPaths());
+      }
     } catch (Exception e) {
       throw new ScmException(ScmOperation.REVERT_COMMITS, "An error occurred during the reversion of commits.", e);
     }
@@ -1124,54 +1872,81 @@ public class ScmProviderGit implements ScmProvider {
           "Unable to resolve target object id using the current repository: " + sourceRevision, e);
     }
 
+    String cacheKey = DiffCache.createKey(sourceId, targetId, request.getType().name(), getDiffOptions());
+    List<CachedDiffEntry> entries = this.diffCache.get(cacheKey);
+    if (entries != null) {
+      if (this.log.isLoggable(Level.FINE)) {
+        this.log.fine(LOG_PREFIX + "Diff between '" + sourceRevision + "' and '" + targetRevision
+            + "' has been taken from the diff cache.");
+      }
+    } else {
+      entries = calculateDiff(sourceId, targetId, request.getType());
+      this.diffCache.put(cacheKey, entries);
+    }
+
     DiffResult.Builder resultBuilder = DiffResult.builder();
+    for (CachedDiffEntry entry : entries) {
+      DiffObject.Builder b = DiffObject.builder();
+      switch (entry.getChangeType()) {
+        case ADD:
+          b.addition(entry.getNewPath());
+          break;
+        case DELETE:
+          b.deletion(entry.getOldPath());
+          break;
+        case MODIFY:
+          b.changed(entry.getOldPath());
+          break;
+        case RENAME:
+          b.moved(entry.getOldPath(), entry.getNewPath());
+          break;
+        case COPY:
+          b.copied(entry.getOldPath(), entry.getNewPath());
+          break;
+      }
+      if (entry.getTextualDiff() != null) {
+        b.addTextualDiff(entry.getTextualDiff());
+      }
+      resultBuilder.addDiff(b.build());
+    }
+    return resultBuilder.build();
+  }
+
+  private List<CachedDiffEntry> calculateDiff(ObjectId sourceId, ObjectId targetId, DiffType type)
+      throws ScmException {
+    List<CachedDiffEntry> result = Lists.newArrayList();
 
+    Repository repo = this.git.getRepository();
+    ObjectReader reader = repo.newObjectReader();
     ByteArrayOutputStream os = new ByteArrayOutputStream();
     DiffFormatter df = new DiffFormatter(os);
-    df.setRepository(this.git.getRepository());
+    df.setReader(reader, repo.getConfig());
+    // set explicitly since they are part of the diff cache key, see getDiffOptions()
+    df.setContext(DIFF_CONTEXT_LINES);
+    df.setAbbreviationLength(DIFF_ABBREVIATION_LENGTH);
+    // files exceeding the budget are already summarized by the guard but the formatter must never inflate them anyway
+    df.setBinaryFileThreshold((int) Math.min(Integer.MAX_VALUE, BlobDiffGuard.getMaxFileSize(repo)));
+    BlobDiffGuard guard = new BlobDiffGuard(repo, reader);
     try {
       List<DiffEntry> entries = df.scan(sourceId, targetId);
       for (DiffEntry entry : entries) {
-        DiffObject.Builder b = DiffObject.builder();
-        switch (entry.getChangeType()) {
-          case ADD:
-            b.addition(entry.getNewPath());
-            break;
-          case DELETE:
-            b.deletion(entry.getOldPath());
-            break;
-          case MODIFY:
-            b.changed(entry.getOldPath());
-            if (request.getType() == DiffType.CHANGES_ONLY) {
-              df.format(entry);
-              df.flush();
-              String textualDiff = new String(os.toByteArray());
-              b.addTextualDiff(textualDiff);
-              os.reset();
-            }
-            break;
-          case RENAME:
-            b.moved(entry.getOldPath(), entry.getNewPath());
-            break;
-          case COPY:
-            b.copied(entry.getOldPath(), entry.getNewPath());
-            break;
-        }
-
-        if (request.getType() == DiffType.FULL) {
-          df.format(entry);
-          df.flush();
-          String textualDiff = new String(os.toByteArray());
-          b.addTextualDiff(textualDiff);
-          os.reset();
+        String textualDiff = null;
+        if (type == DiffType.FULL || type == DiffType.CHANGES_ONLY && entry.getChangeType() == ChangeType.MODIFY) {
+          textualDiff = guard.getSummary(entry);
+          if (textualDiff == null) {
+            df.format(entry);
+            df.flush();
+            textualDiff = new String(os.toByteArray());
+            os.reset();
+          }
         }
-
-        resultBuilder.addDiff(b.build());
+        result.add(new CachedDiffEntry(entry.getChangeType(), entry.getOldPath(), entry.getNewPath(), textualDiff));
       }
     } catch (Exception e) {
       throw new ScmException(ScmOperation.DIFF, "Unable to calculate diff.", e);
     } finally {
       df.close();
+      reader.close();
       try {
         Closeables.close(os, true);
       } catch (IOException e) {
@@ -1179,7 +1954,25 @@ public class ScmProviderGit implements ScmProvider {
       }
     }
 
-    return resultBuilder.build();
+    return result;
+  }
+
+  private String getDiffOptions() {
+    // all settings that are evaluated by the DiffFormatter or calculateDiff and have an impact on the calculated diff
+    Repository repo = this.git.getRepository();
+    DiffConfig diffConfig = repo.getConfig().get(DiffConfig.KEY);
+    StringBuilder sb = new StringBuilder();
+    sb.append("algorithm=").append(repo.getConfig().getEnum(ConfigConstants.CONFIG_DIFF_SECTION, null,
+        ConfigConstants.CONFIG_KEY_ALGORITHM, SupportedAlgorithm.HISTOGRAM));
+    sb.append(",noPrefix=").append(diffConfig.isNoPrefix());
+    sb.append(",renames=").append(diffConfig.getRenameDetectionType());
+    sb.append(",renameLimit=").append(diffConfig.getRenameLimit());
+    sb.append(",context=").append(DIFF_CONTEXT_LINES);
+    sb.append(",abbreviation=").append(DIFF_ABBREVIATION_LENGTH);
+    sb.append(",maxFileSize=").append(BlobDiffGuard.getMaxFileSize(repo));
+    // the textual diffs are decoded using the default charset
+    sb.append(",charset=").append(Charset.defaultCharset().name());
+    return sb.toString();
   }
 
   private void setAuthenticationDetails(TransportCommand<?, ?> command) {
@@ -1187,15 +1980,28 @@ public class ScmProviderGit implements ScmProvider {
     command.setTransportConfigCallback(new TransportConfigCallback() {
       @Override
       public void configure(Transport transport) {
-        if (isSshTransport(transport)) {
-          SshTransport sshTransport = (SshTransport) transport;
-          sshTransport.setSshSessionFactory(ScmProviderGit.this.sshSessionFactory);
-        }
-      }
-
-      private boolean isSshTransport(Transport transport) {
-        return transport instanceof SshTransport;
+        configureSshTransport(transport);
       }
     });
   }
+
+  private void configureTransport(Transport transport) {
+    transport.setCredentialsProvider(this.credentialsProvider);
+    configureSshTransport(transport);
+  }
+
+  private void configureSshTransport(Transport transport) {
+    if (transport instanceof SshTransport) {
+      SshTransport sshTransport = (SshTransport) transport;
+      sshTransport.setSshSessionFactory(this.sshSessionFactory);
+    }
+  }
+
+  /**
+   * The outcome of {@link ScmProviderGit#deleteRefs(String, Collection, boolean, ScmOperation)}.
+   */
+  private static class RefDeletion {
+    private final List<RefChangeResult> results = Lists.newArrayList();
+    private String remoteRevision;
+  }
 }
@@ -0,0 +1,111 @@
+package com.itemis.maven.plugins.unleash.scm.providers.diff;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.Side;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+import com.itemis.maven.plugins.unleash.scm.providers.util.BinarySniffer;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+
+/**
+ * Checks the blobs of a diff entry before the textual diff is created. Blob sizes are read from the object headers
+ * and binary content is detected from the first block of the blob so that neither huge nor binary files need to be
+ * inflated completely. For such entries a short summary is created instead of the textual diff.
+ */
+public class BlobDiffGuard {
+  public static final String CONFIG_KEY_MAX_FILE_SIZE = "diffMaxFileSize";
+  private static final long DEFAULT_MAX_FILE_SIZE = 10 << 20;
+
+  private final ObjectReader reader;
+  private final long maxFileSize;
+  private final BinarySniffer binarySniffer;
+
+  public BlobDiffGuard(Repository repository, ObjectReader reader) {
+    this.reader = reader;
+    this.binarySniffer = new BinarySniffer(reader);
+    this.maxFileSize = getMaxFileSize(repository);
+  }
+
+  public static long getMaxFileSize(Repository repository) {
+    return repository.getConfig().getLong(GitUtil.CONFIG_SECTION_UNLEASH, null, CONFIG_KEY_MAX_FILE_SIZE,
+        DEFAULT_MAX_FILE_SIZE);
+  }
+
+  /**
+   * @param entry the diff entry to check.
+   * @return a summary that replaces the textual diff of the entry or <code>null</code> if the entry can be formatted
+   *         as usual.
+   * @throws IOException if the blobs of the entry could not be read.
+   */
+  public String getSummary(DiffEntry entry) throws IOException {
+    if (isGitLink(entry, Side.OLD) || isGitLink(entry, Side.NEW)) {
+      // submodule links are formatted without loading any blobs
+      return null;
+    }
+
+    long oldSize = getSize(entry, Side.OLD);
+    long newSize = getSize(entry, Side.NEW);
+    if (oldSize > this.maxFileSize || newSize > this.maxFileSize) {
+      StringBuilder sb = createHeader(entry);
+      sb.append("File too large for a textual diff (").append(oldSize < 0 ? 0 : oldSize).append(" -> ")
+          .append(newSize < 0 ? 0 : newSize).append(" bytes, limit is ").append(this.maxFileSize)
+          .append(" bytes)\n");
+      return sb.toString();
+    }
+
+    if (isBinary(entry, Side.OLD) || isBinary(entry, Side.NEW)) {
+      StringBuilder sb = createHeader(entry);
+      sb.append("Binary files ").append(getPath(entry, Side.OLD, "a/")).append(" and ")
+          .append(getPath(entry, Side.NEW, "b/")).append(" differ\n");
+      return sb.toString();
+    }
+    return null;
+  }
+
+  private StringBuilder createHeader(DiffEntry entry) {
+    StringBuilder sb = new StringBuilder("diff --git ");
+    sb.append("a/").append(entry.getChangeType() == DiffEntry.ChangeType.ADD ? entry.getNewPath() : entry.getOldPath());
+    sb.append(" b/")
+        .append(entry.getChangeType() == DiffEntry.ChangeType.DELETE ? entry.getOldPath() : entry.getNewPath());
+    sb.append('\n');
+    return sb;
+  }
+
+  private String getPath(DiffEntry entry, Side side, String prefix) {
+    String path = entry.getPath(side);
+    return DiffEntry.DEV_NULL.equals(path) ? path : prefix + path;
+  }
+
+  private boolean isGitLink(DiffEntry entry, Side side) {
+    return FileMode.GITLINK.equals(entry.getMode(side));
+  }
+
+  private long getSize(DiffEntry entry, Side side) throws IOException {
+    ObjectId id = getObjectId(entry, side);
+    if (id == null) {
+      return -1;
+    }
+    return this.reader.getObjectSize(id, OBJ_BLOB);
+  }
+
+  private boolean isBinary(DiffEntry entry, Side side) throws IOException {
+    ObjectId id = getObjectId(entry, side);
+    return id != null && this.binarySniffer.isBinary(id);
+  }
+
+  private ObjectId getObjectId(DiffEntry entry, Side side) {
+    AbbreviatedObjectId id = entry.getId(side);
+    if (id == null || !id.isComplete() || ObjectId.zeroId().equals(id.toObjectId())) {
+      return null;
+    }
+    return id.toObjectId();
+  }
+}
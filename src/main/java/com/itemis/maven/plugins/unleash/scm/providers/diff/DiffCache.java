@@ -0,0 +1,362 @@
+package com.itemis.maven.plugins.unleash.scm.providers.diff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FileUtils;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+
+/**
+ * A content-addressed cache for diff results. Since a diff between two commits only depends on the ids of the compared
+ * objects, the requested diff type and the diff settings, a calculated diff can be reused as long as these inputs are
+ * equal.<br>
+ * The cache consists of an in-memory LRU tier and an optional on-disk tier that is stored in the
+ * <code>unleash/diff-cache</code> folder of the repository's git directory. The in-memory tier is bounded by the
+ * estimated size of the cached diffs in bytes which can be configured using <code>unleash.diffCacheSize</code>, e.g.
+ * <code>64m</code>. Diffs that exceed this size on their own are not kept in memory.<br>
+ * The on-disk tier must be enabled using <code>unleash.diffCachePersistent = true</code>. It is bounded by the size of
+ * the cache files (<code>unleash.diffCachePersistentSize</code>) and their age
+ * (<code>unleash.diffCachePersistentMaxAge</code>), the least recently used files are pruned first.
+ */
+public class DiffCache {
+  public static final String CONFIG_KEY_SIZE = "diffCacheSize";
+  public static final String CONFIG_KEY_PERSISTENT = "diffCachePersistent";
+  public static final String CONFIG_KEY_PERSISTENT_SIZE = "diffCachePersistentSize";
+  public static final String CONFIG_KEY_PERSISTENT_MAX_AGE = "diffCachePersistentMaxAge";
+  private static final long DEFAULT_SIZE = 16 * 1024 * 1024;
+  private static final long DEFAULT_PERSISTENT_SIZE = 256 * 1024 * 1024;
+  private static final long DEFAULT_PERSISTENT_MAX_AGE_DAYS = 30;
+  private static final int FORMAT_VERSION = 1;
+  // a rough estimate of the object headers and fields of a cached entry and its strings
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private final Map<String, List<CachedDiffEntry>> entries;
+  private final long maxSize;
+  private final File persistentDir;
+  private final long persistentMaxSize;
+  private final long persistentMaxAgeMillis;
+  private long size;
+  // the size of the cache files on disk, -1 until the cache folder has been scanned
+  private long persistentSize = -1;
+
+  public DiffCache(Repository repository) {
+    Config config = repository.getConfig();
+    this.maxSize = config.getLong(GitUtil.CONFIG_SECTION_UNLEASH, null, CONFIG_KEY_SIZE, DEFAULT_SIZE);
+    this.persistentMaxSize = config.getLong(GitUtil.CONFIG_SECTION_UNLEASH, null, CONFIG_KEY_PERSISTENT_SIZE,
+        DEFAULT_PERSISTENT_SIZE);
+    this.persistentMaxAgeMillis = config.getTimeUnit(GitUtil.CONFIG_SECTION_UNLEASH, null,
+        CONFIG_KEY_PERSISTENT_MAX_AGE, TimeUnit.DAYS.toMillis(DEFAULT_PERSISTENT_MAX_AGE_DAYS), TimeUnit.MILLISECONDS);
+    boolean persistent = config.getBoolean(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_PERSISTENT, false);
+    this.persistentDir = persistent && this.maxSize > 0 && this.persistentMaxSize > 0
+        ? new File(repository.getDirectory(), "unleash" + File.separatorChar + "diff-cache")
+        : null;
+    this.entries = new LinkedHashMap<String, List<CachedDiffEntry>>(16, 0.75f, true);
+  }
+
+  /**
+   * Calculates the key under which a diff is cached.
+   *
+   * @param sourceId the id of the source object of the diff.
+   * @param targetId the id of the target object of the diff.
+   * @param type the name of the requested diff type.
+   * @param options a string representation of all settings that have an impact on the diff calculation.
+   * @return the cache key or <code>null</code> if the diff cannot be cached.
+   */
+  public static String createKey(ObjectId sourceId, ObjectId targetId, String type, String options) {
+    if (sourceId == null || targetId == null) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(sourceId.name()).append(':').append(targetId.name()).append(':').append(type).append(':')
+        .append(options);
+    return ObjectId.fromRaw(Constants.newMessageDigest().digest(Constants.encode(sb.toString()))).name();
+  }
+
+  public boolean isEnabled() {
+    return this.maxSize > 0;
+  }
+
+  public synchronized List<CachedDiffEntry> get(String key) {
+    if (!isEnabled() || key == null) {
+      return null;
+    }
+
+    List<CachedDiffEntry> result = this.entries.get(key);
+    if (result == null && this.persistentDir != null) {
+      result = readPersistent(key);
+      if (result != null) {
+        putInMemory(key, result);
+      }
+    }
+    return result;
+  }
+
+  public synchronized void put(String key, List<CachedDiffEntry> diff) {
+    if (!isEnabled() || key == null) {
+      return;
+    }
+
+    List<CachedDiffEntry> value = Collections.unmodifiableList(new ArrayList<CachedDiffEntry>(diff));
+    putInMemory(key, value);
+    if (this.persistentDir != null) {
+      writePersistent(key, value);
+    }
+  }
+
+  public synchronized void clear() {
+    this.entries.clear();
+    this.size = 0;
+  }
+
+  /**
+   * @return the estimated size of the diffs that are cached in memory in bytes.
+   */
+  public synchronized long getSize() {
+    return this.size;
+  }
+
+  private void putInMemory(String key, List<CachedDiffEntry> diff) {
+    List<CachedDiffEntry> previous = this.entries.remove(key);
+    if (previous != null) {
+      this.size -= estimateSize(previous);
+    }
+    long diffSize = estimateSize(diff);
+    if (diffSize > this.maxSize) {
+      return;
+    }
+
+    // evicts the least recently used diffs until the new one fits
+    Iterator<List<CachedDiffEntry>> eldest = this.entries.values().iterator();
+    while (this.size + diffSize > this.maxSize && eldest.hasNext()) {
+      this.size -= estimateSize(eldest.next());
+      eldest.remove();
+    }
+    this.entries.put(key, diff);
+    this.size += diffSize;
+  }
+
+  private static long estimateSize(List<CachedDiffEntry> diff) {
+    long size = ENTRY_OVERHEAD;
+    for (CachedDiffEntry entry : diff) {
+      size += ENTRY_OVERHEAD + 2L * (length(entry.getOldPath()) + length(entry.getNewPath())
+          + length(entry.getTextualDiff()));
+    }
+    return size;
+  }
+
+  private static int length(String s) {
+    return s != null ? s.length() : 0;
+  }
+
+  private List<CachedDiffEntry> readPersistent(String key) {
+    File f = new File(this.persistentDir, key);
+    if (!f.isFile()) {
+      return null;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+      if (in.readInt() != FORMAT_VERSION) {
+        return null;
+      }
+      int count = in.readInt();
+      List<CachedDiffEntry> result = new ArrayList<CachedDiffEntry>(count);
+      for (int i = 0; i < count; i++) {
+        ChangeType changeType = ChangeType.valueOf(in.readUTF());
+        String oldPath = readString(in);
+        String newPath = readString(in);
+        String textualDiff = readString(in);
+        result.add(new CachedDiffEntry(changeType, oldPath, newPath, textualDiff));
+      }
+      // the modification time records the last use of the cache file
+      f.setLastModified(System.currentTimeMillis());
+      return result;
+    } catch (Exception e) {
+      // a corrupt or outdated cache file is simply treated as a cache miss
+      return null;
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  private void writePersistent(String key, List<CachedDiffEntry> diff) {
+    DataOutputStream out = null;
+    File tmp = null;
+    try {
+      FileUtils.mkdirs(this.persistentDir, true);
+      tmp = File.createTempFile(key, ".tmp", this.persistentDir);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(diff.size());
+      for (CachedDiffEntry entry : diff) {
+        out.writeUTF(entry.getChangeType().name());
+        writeString(out, entry.getOldPath());
+        writeString(out, entry.getNewPath());
+        writeString(out, entry.getTextualDiff());
+      }
+      out.close();
+      out = null;
+      File f = new File(this.persistentDir, key);
+      FileUtils.rename(tmp, f);
+      tmp = null;
+      if (this.persistentSize >= 0) {
+        this.persistentSize += f.length();
+      }
+    } catch (IOException e) {
+      // the persistent tier is optional, the diff is still cached in memory
+    } finally {
+      try {
+        Closeables.close(out, true);
+      } catch (IOException e) {
+        // should never happen ;)
+      }
+      if (tmp != null) {
+        tmp.delete();
+      }
+    }
+
+    if (this.persistentSize < 0 || this.persistentSize > this.persistentMaxSize) {
+      prunePersistent();
+    }
+  }
+
+  /**
+   * Removes the expired cache files and the least recently used files exceeding the maximum size of the on-disk tier.
+   * The cache folder is scanned on the first write and whenever the files written since then exceed the maximum size.
+   */
+  private void prunePersistent() {
+    File[] files = this.persistentDir.listFiles();
+    if (files == null) {
+      this.persistentSize = 0;
+      return;
+    }
+    final Map<File, Long> lastUsed = Maps.newHashMap();
+    long now = System.currentTimeMillis();
+    long total = 0;
+    List<File> cached = Lists.newArrayList();
+    for (File f : files) {
+      if (f.getName().endsWith(".tmp")) {
+        // written concurrently or left over by a crashed process
+        continue;
+      }
+      long lastModified = f.lastModified();
+      if (this.persistentMaxAgeMillis >= 0 && now - lastModified > this.persistentMaxAgeMillis) {
+        f.delete();
+      } else {
+        lastUsed.put(f, lastModified);
+        cached.add(f);
+        total += f.length();
+      }
+    }
+
+    if (total > this.persistentMaxSize) {
+      Collections.sort(cached, new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+          return lastUsed.get(f1).compareTo(lastUsed.get(f2));
+        }
+      });
+      for (Iterator<File> i = cached.iterator(); i.hasNext() && total > this.persistentMaxSize;) {
+        File f = i.next();
+        long length = f.length();
+        if (f.delete()) {
+          total -= length;
+        }
+      }
+    }
+    this.persistentSize = total;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, Constants.CHARSET);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = s.getBytes(Constants.CHARSET);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * The provider-independent data of a single diff entry as it is stored in the cache.
+   */
+  public static class CachedDiffEntry {
+    private final ChangeType changeType;
+    private final String oldPath;
+    private final String newPath;
+    private final String textualDiff;
+
+    public CachedDiffEntry(ChangeType changeType, String oldPath, String newPath, String textualDiff) {
+      this.changeType = changeType;
+      this.oldPath = oldPath;
+      this.newPath = newPath;
+      this.textualDiff = textualDiff;
+    }
+
+    public ChangeType getChangeType() {
+      return this.changeType;
+    }
+
+    public String getOldPath() {
+      return this.oldPath;
+    }
+
+    public String getNewPath() {
+      return this.newPath;
+    }
+
+    public String getTextualDiff() {
+      return this.textualDiff;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(this.changeType, this.oldPath, this.newPath, this.textualDiff);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof CachedDiffEntry)) {
+        return false;
+      }
+      CachedDiffEntry other = (CachedDiffEntry) obj;
+      return this.changeType == other.changeType && Objects.equal(this.oldPath, other.oldPath)
+          && Objects.equal(this.newPath, other.newPath) && Objects.equal(this.textualDiff, other.textualDiff);
+    }
+  }
+}
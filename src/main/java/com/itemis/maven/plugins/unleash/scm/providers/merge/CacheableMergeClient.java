@@ -0,0 +1,16 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
+
+/**
+ * A merge client whose results only depend on the contents it merges, e.g. a non-interactive merge tool. Only the
+ * results of such clients are stored in the merge result cache (<code>unleash.mergeCache = true</code>), clients that
+ * ask the user for decisions must not implement this interface.
+ */
+public interface CacheableMergeClient extends MergeClient {
+  /**
+   * @return the identity the cached results are bound to. It must change whenever the client may produce different
+   *         results for the same contents, e.g. with the version or the options of the merge tool.
+   */
+  String getCacheIdentity();
+}
@@ -0,0 +1,99 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.NoMergeBaseException;
+import org.eclipse.jgit.errors.NoMergeBaseException.MergeBaseFailureReason;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+
+/**
+ * A bounded in-memory LRU cache for the merge bases of commit pairs. Since commits are immutable, the merge base of
+ * two commits never changes, no matter how the refs pointing to them are moved. Cached entries thus never have to be
+ * invalidated which makes repeated base calculations of the same pair, e.g. by a preflight check, the following update
+ * and another update before pushing, free of any history walk.
+ */
+public class MergeBaseCache {
+  public static final String CONFIG_KEY_SIZE = "mergeBaseCacheSize";
+  private static final int DEFAULT_SIZE = 64;
+
+  private final Map<String, ObjectId> bases;
+  private final int maxSize;
+
+  public MergeBaseCache(Config config) {
+    this.maxSize = config.getInt(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_SIZE, DEFAULT_SIZE);
+    this.bases = new LinkedHashMap<String, ObjectId>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, ObjectId> eldest) {
+        return size() > MergeBaseCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * Determines the merge base of two commits the same way {@link org.eclipse.jgit.merge.Merger} does.
+   *
+   * @param walk the walk to parse the merge base with. Its state is reset if the merge base has to be calculated.
+   * @param a the first commit.
+   * @param b the second commit.
+   * @return the merge base or <code>null</code> if the commits do not have a common ancestor.
+   * @throws NoMergeBaseException if the commits have more than one merge base.
+   */
+  public RevCommit getMergeBase(RevWalk walk, RevCommit a, RevCommit b) throws IOException {
+    String key = createKey(a, b);
+    ObjectId base;
+    synchronized (this.bases) {
+      base = this.bases.get(key);
+    }
+    if (base != null) {
+      return ObjectId.zeroId().equals(base) ? null : walk.parseCommit(base);
+    }
+
+    RevCommit result = calculateMergeBase(walk, a, b);
+    if (this.maxSize > 0) {
+      synchronized (this.bases) {
+        this.bases.put(key, result != null ? result.copy() : ObjectId.zeroId());
+      }
+    }
+    return result;
+  }
+
+  public void clear() {
+    synchronized (this.bases) {
+      this.bases.clear();
+    }
+  }
+
+  private RevCommit calculateMergeBase(RevWalk walk, RevCommit a, RevCommit b) throws IOException {
+    walk.reset();
+    walk.setRevFilter(RevFilter.MERGE_BASE);
+    walk.markStart(a);
+    walk.markStart(b);
+    RevCommit base = walk.next();
+    if (base == null) {
+      return null;
+    }
+    RevCommit base2 = walk.next();
+    if (base2 != null) {
+      throw new NoMergeBaseException(MergeBaseFailureReason.MULTIPLE_MERGE_BASES_NOT_SUPPORTED, MessageFormat
+          .format(JGitText.get().multipleMergeBasesFor, a.name(), b.name(), base.name(), base2.name()));
+    }
+    return base;
+  }
+
+  // the merge base is symmetric, so is the key
+  private static String createKey(ObjectId a, ObjectId b) {
+    return a.compareTo(b) <= 0 ? a.name() + ':' + b.name() : b.name() + ':' + a.name();
+  }
+}
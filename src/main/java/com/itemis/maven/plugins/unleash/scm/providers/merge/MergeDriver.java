@@ -0,0 +1,25 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Merges the contents of paths of a specific kind in-process, e.g. files that follow a known structure, before the
+ * content merge is delegated to the {@link com.itemis.maven.plugins.unleash.scm.merge.MergeClient MergeClient}.
+ * Drivers are selected per path using a {@link MergeDriverRegistry} and may be called concurrently for different
+ * paths.
+ */
+public interface MergeDriver {
+  /**
+   * Merges the contents of a single path.
+   *
+   * @param base the content of the merge base, <code>null</code> if the path does not exist in the merge base.
+   * @param ours the local content, <code>null</code> if the path does not exist locally.
+   * @param theirs the remote content, <code>null</code> if the path does not exist remotely.
+   * @param result the stream to write the merged content to.
+   * @return <code>true</code> if the contents have been merged. If <code>false</code> is returned, anything written to
+   *         the result is discarded and the merge client is asked to merge the contents.
+   */
+  boolean merge(InputStream base, InputStream ours, InputStream theirs, OutputStream result) throws IOException;
+}
@@ -0,0 +1,85 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.attributes.Attributes;
+import org.eclipse.jgit.ignore.FastIgnoreRule;
+import org.eclipse.jgit.lib.Config;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+
+/**
+ * Selects the {@link MergeDriver} for the content merge of a path. A driver is selected by the <code>merge</code>
+ * attribute of the path if the <code>.gitattributes</code> name a registered driver (e.g.
+ * <code>pom.xml merge=unleash-pom-version</code>). Otherwise the first path pattern matching the path decides. Path
+ * patterns use the syntax of <code>.gitignore</code> files.<br>
+ * Drivers must be registered before the merge starts since the registry is read concurrently during the merge.
+ */
+public class MergeDriverRegistry {
+  public static final String CONFIG_KEY_POM_VERSION_MERGE = "pomVersionMerge";
+
+  private final Map<String, MergeDriver> drivers;
+  private final List<FastIgnoreRule> pathPatterns;
+  private final List<String> pathDrivers;
+
+  public MergeDriverRegistry() {
+    this.drivers = Maps.newHashMap();
+    this.pathPatterns = Lists.newArrayList();
+    this.pathDrivers = Lists.newArrayList();
+  }
+
+  /**
+   * Creates a registry containing the built-in drivers. The {@link PomVersionMergeDriver} is mapped to all
+   * <code>pom.xml</code> files unless <code>unleash.pomVersionMerge</code> is set to <code>false</code>. It can be
+   * selected via <code>.gitattributes</code> in any case.
+   */
+  public static MergeDriverRegistry createDefault(Config config) {
+    MergeDriverRegistry registry = new MergeDriverRegistry();
+    registry.register(PomVersionMergeDriver.NAME, new PomVersionMergeDriver());
+    if (config.getBoolean(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_POM_VERSION_MERGE, true)) {
+      registry.mapPath("pom.xml", PomVersionMergeDriver.NAME);
+    }
+    return registry;
+  }
+
+  /**
+   * Registers a driver under a name that can be referenced by <code>.gitattributes</code> and path mappings.
+   */
+  public void register(String name, MergeDriver driver) {
+    this.drivers.put(Preconditions.checkNotNull(name), Preconditions.checkNotNull(driver));
+  }
+
+  /**
+   * Maps all paths matching the pattern to the driver with the given name.
+   */
+  public void mapPath(String pattern, String driverName) {
+    Preconditions.checkArgument(this.drivers.containsKey(driverName), "Unknown merge driver '%s'.", driverName);
+    this.pathPatterns.add(new FastIgnoreRule(pattern));
+    this.pathDrivers.add(driverName);
+  }
+
+  public MergeDriver getDriver(String name) {
+    return this.drivers.get(name);
+  }
+
+  /**
+   * @return the name of the driver for the path or <code>null</code> if the merge client shall merge the path.
+   */
+  public String getDriverName(String path, Attributes attributes) {
+    String attributeValue = attributes.getValue("merge");
+    if (attributeValue != null && this.drivers.containsKey(attributeValue)) {
+      return attributeValue;
+    }
+
+    for (int i = 0; i < this.pathPatterns.size(); i++) {
+      if (this.pathPatterns.get(i).isMatch(path, false)) {
+        return this.pathDrivers.get(i);
+      }
+    }
+    return null;
+  }
+}
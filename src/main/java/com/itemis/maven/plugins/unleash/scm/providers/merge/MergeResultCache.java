@@ -0,0 +1,212 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.IO;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+
+/**
+ * A content-addressed cache for the results of content merges. The key is derived from the blob ids of base, ours and
+ * theirs as well as the identity of the merge client, the value is the id of the merged blob. The entries are stored
+ * in the <code>unleash/merge-cache</code> folder of the repository's git directory.<br>
+ * The cache must be enabled using <code>unleash.mergeCache = true</code> and only holds results of merge clients that
+ * implement {@link CacheableMergeClient}. It is bounded by the number of entries (<code>unleash.mergeCacheSize</code>)
+ * and their age (<code>unleash.mergeCacheMaxAge</code>), the least recently used entries are pruned first.<br>
+ * The merged blobs themselves are not held by the cache. Once a merged blob has been pruned by the garbage collection
+ * the entry is treated as a miss and removed.
+ */
+class MergeResultCache {
+  public static final String CONFIG_KEY_ENABLED = "mergeCache";
+  public static final String CONFIG_KEY_SIZE = "mergeCacheSize";
+  public static final String CONFIG_KEY_MAX_AGE = "mergeCacheMaxAge";
+  private static final int DEFAULT_SIZE = 1000;
+  private static final long DEFAULT_MAX_AGE_DAYS = 30;
+
+  private final File cacheDir;
+  private final String clientId;
+  private final int maxEntries;
+  private final long maxAgeMillis;
+  private boolean modified;
+
+  /**
+   * @param gitDir the git directory of the repository the merge is performed in, may be <code>null</code> which
+   *          disables the cache.
+   * @param config the configuration of the repository.
+   * @param clientId the identity of the merge client whose results are cached, <code>null</code> disables the cache.
+   */
+  MergeResultCache(File gitDir, Config config, String clientId) {
+    boolean enabled = gitDir != null && clientId != null
+        && config.getBoolean(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_ENABLED, false);
+    this.cacheDir = enabled ? new File(gitDir, "unleash" + File.separatorChar + "merge-cache") : null;
+    this.clientId = clientId;
+    this.maxEntries = config.getInt(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_SIZE, DEFAULT_SIZE);
+    this.maxAgeMillis = config.getTimeUnit(GitUtil.CONFIG_SECTION_UNLEASH, null, CONFIG_KEY_MAX_AGE,
+        TimeUnit.DAYS.toMillis(DEFAULT_MAX_AGE_DAYS), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the identity of the merge client results are cached for or <code>null</code> if the results of the client
+   *         must not be cached.
+   */
+  static String getClientId(MergeClient mergeClient) {
+    return mergeClient instanceof CacheableMergeClient ? ((CacheableMergeClient) mergeClient).getCacheIdentity()
+        : null;
+  }
+
+  boolean isEnabled() {
+    return this.cacheDir != null;
+  }
+
+  /**
+   * @return the id of the merged blob or <code>null</code> if there is no cached result or the merged blob does not
+   *         exist anymore.
+   */
+  ObjectId get(ObjectReader reader, ObjectId base, ObjectId ours, ObjectId theirs, String driver) throws IOException {
+    if (!isEnabled()) {
+      return null;
+    }
+
+    File f = new File(this.cacheDir, createKey(base, ours, theirs, driver));
+    if (!f.isFile()) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    if (isExpired(f, now)) {
+      f.delete();
+      return null;
+    }
+
+    ObjectId result;
+    try {
+      byte[] content = IO.readFully(f);
+      result = content.length >= Constants.OBJECT_ID_STRING_LENGTH ? ObjectId.fromString(content, 0) : null;
+    } catch (IOException e) {
+      // a vanished or corrupt cache file is simply treated as a cache miss
+      result = null;
+    } catch (IllegalArgumentException e) {
+      result = null;
+    }
+
+    if (result == null || !reader.has(result, OBJ_BLOB)) {
+      f.delete();
+      return null;
+    }
+    // the modification time records the last use of the entry
+    f.setLastModified(now);
+    return result;
+  }
+
+  void put(ObjectId base, ObjectId ours, ObjectId theirs, String driver, ObjectId result) {
+    if (!isEnabled()) {
+      return;
+    }
+
+    File tmp = null;
+    OutputStream out = null;
+    try {
+      FileUtils.mkdirs(this.cacheDir, true);
+      String key = createKey(base, ours, theirs, driver);
+      tmp = File.createTempFile(key, ".tmp", this.cacheDir);
+      out = new FileOutputStream(tmp);
+      out.write(Constants.encodeASCII(result.name()));
+      out.close();
+      out = null;
+      FileUtils.rename(tmp, new File(this.cacheDir, key));
+      tmp = null;
+      this.modified = true;
+    } catch (IOException e) {
+      // the cache is optional, the merge result has already been applied
+    } finally {
+      try {
+        Closeables.close(out, true);
+      } catch (IOException e) {
+        // should never happen ;)
+      }
+      if (tmp != null) {
+        tmp.delete();
+      }
+    }
+  }
+
+  /**
+   * Removes the expired entries and the least recently used entries exceeding the maximum number of entries. The cache
+   * folder is only scanned if entries have been added since the last call.
+   */
+  void prune() {
+    if (!isEnabled() || !this.modified) {
+      return;
+    }
+    this.modified = false;
+
+    File[] files = this.cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    final Map<File, Long> lastUsed = Maps.newHashMap();
+    long now = System.currentTimeMillis();
+    List<File> entries = Lists.newArrayList();
+    for (File f : files) {
+      if (f.getName().endsWith(".tmp")) {
+        // written concurrently or left over by a crashed process
+        continue;
+      }
+      if (isExpired(f, now)) {
+        f.delete();
+      } else {
+        lastUsed.put(f, f.lastModified());
+        entries.add(f);
+      }
+    }
+
+    if (entries.size() > this.maxEntries) {
+      Collections.sort(entries, new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+          return lastUsed.get(f1).compareTo(lastUsed.get(f2));
+        }
+      });
+      for (File f : entries.subList(0, entries.size() - this.maxEntries)) {
+        f.delete();
+      }
+    }
+  }
+
+  private boolean isExpired(File f, long now) {
+    return this.maxAgeMillis >= 0 && now - f.lastModified() > this.maxAgeMillis;
+  }
+
+  private String createKey(ObjectId base, ObjectId ours, ObjectId theirs, String driver) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(name(base)).append(':').append(name(ours)).append(':').append(name(theirs)).append(':')
+        .append(this.clientId);
+    if (driver != null) {
+      // results of a merge driver may differ from the results of the merge client
+      sb.append(':').append(driver);
+    }
+    return ObjectId.fromRaw(Constants.newMessageDigest().digest(Constants.encode(sb.toString()))).name();
+  }
+
+  private static String name(ObjectId id) {
+    return id != null ? id.name() : ObjectId.zeroId().name();
+  }
+}
@@ -0,0 +1,131 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.merge.MergeAlgorithm;
+import org.eclipse.jgit.merge.MergeChunk;
+import org.eclipse.jgit.merge.MergeChunk.ConflictState;
+import org.eclipse.jgit.merge.MergeResult;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Merges POMs whose only conflicts are the <code>&lt;version&gt;</code> elements of the project or its parent, which is
+ * the typical case after the release plugin has changed the project versions locally. The contents are merged using
+ * JGit's {@link MergeAlgorithm}:
+ * <ul>
+ * <li>changes of one side only are taken from that side,</li>
+ * <li>conflicts consisting of project or parent version lines only are resolved with ours,</li>
+ * <li>any other conflict, e.g. dependency or plugin versions that were changed on both sides, makes the driver give up
+ * and the merge client takes over.</li>
+ * </ul>
+ * Version elements are only considered if they are on a line of their own.
+ */
+class PomVersionMergeDriver implements MergeDriver {
+  public static final String NAME = "unleash-pom-version";
+  private static final Pattern VERSION_LINE = Pattern.compile("\\s*<version>[^<]*</version>\\s*");
+  private static final Pattern MARKUP = Pattern.compile(
+      "<!--.*?-->|<!\\[CDATA\\[.*?\\]\\]>|<[?!].*?>|<(/?)([^\\s/>]+)[^>]*?(/?)>|\n", Pattern.DOTALL);
+
+  @Override
+  public boolean merge(InputStream base, InputStream ours, InputStream theirs, OutputStream result)
+      throws IOException {
+    if (base == null || ours == null || theirs == null) {
+      return false;
+    }
+
+    RawText baseText = new RawText(ByteStreams.toByteArray(base));
+    RawText ourText = new RawText(ByteStreams.toByteArray(ours));
+    RawText theirText = new RawText(ByteStreams.toByteArray(theirs));
+    MergeAlgorithm algorithm = new MergeAlgorithm(DiffAlgorithm.getAlgorithm(SupportedAlgorithm.HISTOGRAM));
+    MergeResult<RawText> merge = algorithm.merge(RawTextComparator.DEFAULT, baseText, ourText, theirText);
+    List<RawText> sequences = merge.getSequences();
+    boolean[] ourVersionLines = findVersionLines(ourText);
+    boolean[] theirVersionLines = findVersionLines(theirText);
+
+    Iterator<MergeChunk> chunks = merge.iterator();
+    while (chunks.hasNext()) {
+      MergeChunk chunk = chunks.next();
+      if (chunk.getConflictState() == ConflictState.NO_CONFLICT) {
+        writeLines(sequences.get(chunk.getSequenceIndex()), chunk.getBegin(), chunk.getEnd(), result);
+        continue;
+      }
+
+      // a conflict consists of our range followed by their range
+      MergeChunk theirChunk = chunks.hasNext() ? chunks.next() : null;
+      if (theirChunk == null || theirChunk.getConflictState() != ConflictState.NEXT_CONFLICTING_RANGE
+          || !containsOnly(ourVersionLines, chunk) || !containsOnly(theirVersionLines, theirChunk)) {
+        return false;
+      }
+      writeLines(ourText, chunk.getBegin(), chunk.getEnd(), result);
+    }
+    return true;
+  }
+
+  private static boolean containsOnly(boolean[] versionLines, MergeChunk chunk) {
+    if (chunk.getBegin() == chunk.getEnd()) {
+      // one side removed or added lines where the other one changed the version
+      return false;
+    }
+    for (int i = chunk.getBegin(); i < chunk.getEnd(); i++) {
+      if (!versionLines[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Tracks the element nesting of the POM in order to find the version elements of the project and the parent.
+   *
+   * @return for each line whether it consists of the project or parent version element only.
+   */
+  private static boolean[] findVersionLines(RawText text) {
+    boolean[] versionLines = new boolean[text.size()];
+    List<String> elements = Lists.newArrayList();
+    int line = 0;
+    Matcher m = MARKUP.matcher(text.getString(0, text.size(), false));
+    while (m.find()) {
+      String name = m.group(2);
+      if (name != null && m.group(1).isEmpty() && m.group(3).isEmpty()) {
+        if (name.equals("version") && line < versionLines.length && isProjectOrParent(elements)) {
+          versionLines[line] = VERSION_LINE.matcher(text.getString(line)).matches();
+        }
+        elements.add(name);
+      } else if (name != null && !m.group(1).isEmpty() && !elements.isEmpty()) {
+        elements.remove(elements.size() - 1);
+      }
+      // comments and tags may span several lines
+      line += CharMatcher.is('\n').countIn(m.group());
+    }
+    return versionLines;
+  }
+
+  private static boolean isProjectOrParent(List<String> elements) {
+    if (elements.isEmpty() || !elements.get(0).equals("project")) {
+      return false;
+    }
+    return elements.size() == 1 || (elements.size() == 2 && elements.get(1).equals("parent"));
+  }
+
+  private static void writeLines(RawText text, int begin, int end, OutputStream out) throws IOException {
+    for (int i = begin; i < end; i++) {
+      text.writeLine(out, i);
+      if (i < text.size() - 1 || !text.isMissingNewlineAtEnd()) {
+        out.write('\n');
+      }
+    }
+  }
+}
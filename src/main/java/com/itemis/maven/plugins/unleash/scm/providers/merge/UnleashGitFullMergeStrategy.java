@@ -8,12 +8,26 @@ import org.eclipse.jgit.merge.Merger;
 
 import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
 
+/**
+ * Merges the contents of conflicting paths using a {@link MergeClient}. The client is called from a single thread
+ * unless <code>unleash.mergeThreads</code> is set to a value greater than <code>1</code>. Only enable parallel merges
+ * for clients that are thread-safe, interactive clients that ask the user for each file are not.
+ */
 public class UnleashGitFullMergeStrategy extends MergeStrategy {
   private MergeClient mergeClient;
+  private MergeBaseCache mergeBaseCache;
+  private MergeDriverRegistry mergeDrivers;
 
   public UnleashGitFullMergeStrategy(MergeClient mergeClient) {
+    this(mergeClient, null, null);
+  }
+
+  public UnleashGitFullMergeStrategy(MergeClient mergeClient, MergeBaseCache mergeBaseCache,
+      MergeDriverRegistry mergeDrivers) {
     super();
     this.mergeClient = mergeClient;
+    this.mergeBaseCache = mergeBaseCache;
+    this.mergeDrivers = mergeDrivers;
   }
 
   @Override
@@ -23,16 +37,22 @@ public class UnleashGitFullMergeStrategy extends MergeStrategy {
 
   @Override
   public Merger newMerger(Repository db) {
-    return new UnleashGitMerger(db, this.mergeClient);
+    return newMerger(db, false);
   }
 
   @Override
   public Merger newMerger(Repository db, boolean inCore) {
-    return new UnleashGitMerger(db, inCore, this.mergeClient);
+    UnleashGitMerger merger = new UnleashGitMerger(db, inCore, this.mergeClient);
+    merger.setMergeBaseCache(this.mergeBaseCache);
+    merger.setMergeDriverRegistry(this.mergeDrivers);
+    return merger;
   }
 
   @Override
   public Merger newMerger(ObjectInserter inserter, Config config) {
-    throw new UnsupportedOperationException();
+    UnleashGitMerger merger = new UnleashGitMerger(inserter, config, this.mergeClient);
+    merger.setMergeBaseCache(this.mergeBaseCache);
+    merger.setMergeDriverRegistry(this.mergeDrivers);
+    return merger;
   }
 }
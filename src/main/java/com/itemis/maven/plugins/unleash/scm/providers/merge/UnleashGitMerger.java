@@ -44,31 +44,30 @@
  */
 package com.itemis.maven.plugins.unleash.scm.providers.merge;
 
-import static org.eclipse.jgit.lib.Constants.CHARACTER_ENCODING;
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.jgit.attributes.Attributes;
 import org.eclipse.jgit.diff.DiffAlgorithm;
 import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
 import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.diff.Sequence;
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.dircache.DirCacheBuildIterator;
@@ -79,10 +78,20 @@ import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.IndexWriteException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.NoMergeBaseException;
+import org.eclipse.jgit.errors.NoMergeBaseException.MergeBaseFailureReason;
 import org.eclipse.jgit.errors.NoWorkTreeException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.merge.MergeAlgorithm;
 import org.eclipse.jgit.merge.MergeChunk.ConflictState;
@@ -90,19 +99,30 @@ import org.eclipse.jgit.merge.MergeFormatter;
 import org.eclipse.jgit.merge.MergeResult;
 import org.eclipse.jgit.merge.RecursiveMerger;
 import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.AbstractTreeIterator;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.NameConflictTreeWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.WorkingTreeIterator;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.eclipse.jgit.util.TemporaryBuffer;
+import org.eclipse.jgit.util.io.TeeInputStream;
 
 import com.google.common.io.Closeables;
 import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
 import com.itemis.maven.plugins.unleash.scm.providers.ScmProviderGit;
+import com.itemis.maven.plugins.unleash.scm.providers.util.BinarySniffer;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+import com.itemis.maven.plugins.unleash.scm.providers.util.ParallelTaskRunner;
+import com.itemis.maven.plugins.unleash.scm.providers.util.ParallelTaskRunner.Worker;
+import com.itemis.maven.plugins.unleash.scm.providers.util.ParallelTaskRunner.WorkerFactory;
 
 /**
  * This is a copy of the {@link ResolveMerger} class and is meant as a temporary solution until the
@@ -112,6 +132,27 @@ import com.itemis.maven.plugins.unleash.scm.providers.ScmProviderGit;
 // TODO re-implement this merger or look at how to extend any existing merger implementation and modify required parts
 // only.
 public class UnleashGitMerger extends ResolveMerger {
+  public static final String CONFIG_KEY_MERGE_THREADS = "mergeThreads";
+  public static final String CONFIG_KEY_CHECKOUT_THREADS = "checkoutThreads";
+  public static final String CONFIG_KEY_RECURSIVE_MERGE_BASE = "recursiveMergeBase";
+  public static final String CONFIG_KEY_RECURSIVE_MERGE_BASE_DEPTH = "recursiveMergeBaseDepth";
+  private static final int DEFAULT_RECURSIVE_MERGE_BASE_DEPTH = 10;
+  private static final int MAX_MERGE_BASES = 200;
+  public static final String CONFIG_KEY_BINARY_MERGE_STRATEGY = "binaryMergeStrategy";
+  private static final int MERGE_BUFFER_IN_CORE_LIMIT = 1 << 20;
+
+  /**
+   * The ways a content conflict of a binary file can be resolved.
+   */
+  public enum BinaryMergeStrategy {
+    /** Our version is taken. */
+    OURS,
+    /** Their version is taken. */
+    THEIRS,
+    /** The path is reported as conflicting and the working tree keeps our version. */
+    CONFLICT
+  }
+
   /**
    * The tree walk which we'll iterate over to merge entries.
    *
@@ -188,7 +229,7 @@ public class UnleashGitMerger extends ResolveMerger {
    *
    * @since 3.4
    */
-  protected List<String> modifiedFiles = new LinkedList<String>();
+  protected List<String> modifiedFiles = new ArrayList<String>();
 
   /**
    * If the merger has nothing to do for a file but check it out at the end of
@@ -274,16 +315,55 @@ public class UnleashGitMerger extends ResolveMerger {
 
   private MergeClient mergeClient;
 
+  /**
+   * The content merges that have been detected during the tree walk. They are executed after the walk, possibly in
+   * parallel, and applied to the index and the working tree in path order.
+   */
+  private List<ContentMergeJob> contentMergeJobs = new ArrayList<ContentMergeJob>();
+
+  private MergeResultCache mergeResultCache;
+
+  private MergeBaseCache mergeBaseCache;
+
+  private MergeDriverRegistry mergeDrivers;
+
+  /**
+   * Set while merging the merge bases of a criss-cross merge into a virtual merge base.
+   */
+  private boolean virtualMerge;
+
+  /**
+   * The path of the entry that is currently processed. Both representations are created lazily and at most once per
+   * entry since {@link TreeWalk#getRawPath()} and {@link TreeWalk#getPathString()} create a new copy on each call.
+   */
+  private byte[] currentRawPath;
+  private String currentPath;
+
+  /**
+   * The entry for ours of the current path if it was not taken from the index but created by this merger.
+   */
+  private DirCacheEntry ownedOurDce;
+
+  /**
+   * The configuration of the repository. Taken from the constructor since there is no repository if this merger works
+   * with an {@link ObjectInserter} only.
+   */
+  private final Config config;
+
+  private final BinarySniffer binarySniffer;
+
   /**
    * @param local
    * @param inCore
    */
   protected UnleashGitMerger(Repository local, boolean inCore, MergeClient mergeClient) {
     super(local);
+    this.binarySniffer = new BinarySniffer(this.reader);
     this.mergeClient = mergeClient;
-    SupportedAlgorithm diffAlg = local.getConfig().getEnum(ConfigConstants.CONFIG_DIFF_SECTION, null,
-        ConfigConstants.CONFIG_KEY_ALGORITHM, SupportedAlgorithm.HISTOGRAM);
-    this.mergeAlgorithm = new MergeAlgorithm(DiffAlgorithm.getAlgorithm(diffAlg));
+    this.config = local.getConfig();
+    this.mergeResultCache = new MergeResultCache(local.getDirectory(), this.config,
+        MergeResultCache.getClientId(mergeClient));
+    this.mergeAlgorithm = getMergeAlgorithm(this.config);
     this.commitNames = new String[] { "BASE", "OURS", "THEIRS" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     this.inCore = inCore;
 
@@ -302,6 +382,55 @@ public class UnleashGitMerger extends ResolveMerger {
     this(local, false, mergeClient);
   }
 
+  /**
+   * Creates a merger that works in-core without a repository, e.g. for bare or in-memory repositories. All objects are
+   * read and written through the given inserter and neither a working tree nor a {@link DirCache} lock is needed. The
+   * {@link MergeResultCache} is not used since there is no git directory to store it in.
+   *
+   * @param inserter
+   *                      the inserter to write the merge results with.
+   * @param config
+   *                      the configuration of the repository the inserter belongs to.
+   * @param mergeClient
+   *                      the client that merges the file contents.
+   */
+  protected UnleashGitMerger(ObjectInserter inserter, Config config, MergeClient mergeClient) {
+    super(inserter, config);
+    this.binarySniffer = new BinarySniffer(this.reader);
+    this.mergeClient = mergeClient;
+    this.config = config;
+    this.mergeResultCache = new MergeResultCache(null, config, MergeResultCache.getClientId(mergeClient));
+    this.mergeAlgorithm = getMergeAlgorithm(config);
+    this.commitNames = new String[] { "BASE", "OURS", "THEIRS" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    this.inCore = true;
+    this.implicitDirCache = false;
+    this.dircache = DirCache.newInCore();
+  }
+
+  /**
+   * @param mergeBaseCache
+   *                         the cache to take the merge base from, may be <code>null</code> which lets the merger
+   *                         calculate the merge base on its own.
+   */
+  void setMergeBaseCache(MergeBaseCache mergeBaseCache) {
+    this.mergeBaseCache = mergeBaseCache;
+  }
+
+  /**
+   * @param mergeDrivers
+   *                       the drivers to merge specific paths with instead of the merge client, may be
+   *                       <code>null</code> which passes all content merges to the merge client.
+   */
+  void setMergeDriverRegistry(MergeDriverRegistry mergeDrivers) {
+    this.mergeDrivers = mergeDrivers;
+  }
+
+  private static MergeAlgorithm getMergeAlgorithm(Config config) {
+    SupportedAlgorithm diffAlg = config.getEnum(ConfigConstants.CONFIG_DIFF_SECTION, null,
+        ConfigConstants.CONFIG_KEY_ALGORITHM, SupportedAlgorithm.HISTOGRAM);
+    return new MergeAlgorithm(DiffAlgorithm.getAlgorithm(diffAlg));
+  }
+
   @Override
   protected boolean mergeImpl() throws IOException {
     if (this.implicitDirCache) {
@@ -317,13 +446,131 @@ public class UnleashGitMerger extends ResolveMerger {
     }
   }
 
+  @Override
+  protected RevCommit getBaseCommit(RevCommit a, RevCommit b) throws IncorrectObjectTypeException, IOException {
+    return getBaseCommit(a, b, 0);
+  }
+
+  private RevCommit getBaseCommit(RevCommit a, RevCommit b, int callDepth) throws IOException {
+    try {
+      if (this.mergeBaseCache == null) {
+        return super.getBaseCommit(a, b);
+      }
+      return this.mergeBaseCache.getMergeBase(this.walk, a, b);
+    } catch (NoMergeBaseException e) {
+      if (e.getReason() != MergeBaseFailureReason.MULTIPLE_MERGE_BASES_NOT_SUPPORTED
+          || !this.config.getBoolean(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_RECURSIVE_MERGE_BASE, true)) {
+        throw e;
+      }
+    }
+    return createVirtualMergeBase(a, b, callDepth);
+  }
+
+  /**
+   * Creates a virtual merge base for commits with multiple merge bases (criss-cross merges) by merging the merge bases
+   * in-core, just like the recursive strategy of git does. Using the virtual commit as the base of the actual merge
+   * only leaves the changes made after the merge bases to be merged which reduces the number of content merges.<br>
+   * The contents of the merge bases are merged using the textual merge algorithm, conflicts are recorded as conflict
+   * markers in the virtual base. The merge client is never called for the virtual merge base.<br>
+   * Merging the merge bases may require virtual merge bases itself. Beyond the depth configured with
+   * <code>unleash.recursiveMergeBaseDepth</code> the first merge base is used instead of a virtual one.
+   */
+  private RevCommit createVirtualMergeBase(RevCommit a, RevCommit b, int callDepth) throws IOException {
+    List<RevCommit> baseCommits = new ArrayList<RevCommit>();
+    this.walk.reset();
+    this.walk.setRevFilter(RevFilter.MERGE_BASE);
+    this.walk.markStart(a);
+    this.walk.markStart(b);
+    RevCommit c;
+    while ((c = this.walk.next()) != null) {
+      baseCommits.add(c);
+    }
+    if (baseCommits.size() >= MAX_MERGE_BASES) {
+      throw new NoMergeBaseException(MergeBaseFailureReason.TOO_MANY_MERGE_BASES, MessageFormat.format(
+          JGitText.get().mergeRecursiveTooManyMergeBasesFor, Integer.valueOf(MAX_MERGE_BASES), a.name(), b.name(),
+          Integer.valueOf(baseCommits.size())));
+    }
+    if (callDepth >= this.config.getInt(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_RECURSIVE_MERGE_BASE_DEPTH,
+        DEFAULT_RECURSIVE_MERGE_BASE_DEPTH)) {
+      return baseCommits.get(0);
+    }
+
+    DirCache oldDircache = this.dircache;
+    boolean oldInCore = this.inCore;
+    WorkingTreeIterator oldWorkingTreeIterator = this.workingTreeIterator;
+    boolean oldVirtualMerge = this.virtualMerge;
+    this.inCore = true;
+    this.workingTreeIterator = null;
+    try {
+      RevCommit currentBase = baseCommits.get(0);
+      for (int i = 1; i < baseCommits.size(); i++) {
+        RevCommit nextBase = baseCommits.get(i);
+        RevCommit bc = getBaseCommit(currentBase, nextBase, callDepth + 1);
+        AbstractTreeIterator bcTree = bc == null ? new EmptyTreeIterator() : openTree(bc.getTree());
+
+        // the index of the virtual merge is initialized with ours so that unchanged paths can be skipped
+        this.dircache = DirCache.read(this.reader, currentBase.getTree());
+        this.virtualMerge = true;
+        boolean merged = mergeTrees(bcTree, currentBase.getTree(), nextBase.getTree(), true);
+        ObjectId tree = this.resultTree;
+        // the results of the virtual merge must not leak into the actual merge
+        clearMergeState();
+        if (!merged) {
+          throw new NoMergeBaseException(MergeBaseFailureReason.CONFLICTS_DURING_MERGE_BASE_CALCULATION,
+              MessageFormat.format(JGitText.get().mergeRecursiveConflictsWhenMergingCommonAncestors,
+                  currentBase.getName(), nextBase.getName()));
+        }
+        currentBase = createVirtualCommit(tree, currentBase, nextBase);
+      }
+      return currentBase;
+    } finally {
+      this.dircache = oldDircache;
+      this.inCore = oldInCore;
+      this.workingTreeIterator = oldWorkingTreeIterator;
+      this.virtualMerge = oldVirtualMerge;
+    }
+  }
+
+  /**
+   * Creates a commit that is only known to the walk of this merger, it is never inserted into the repository.
+   */
+  private RevCommit createVirtualCommit(ObjectId tree, RevCommit... parents) throws IOException {
+    int time = 0;
+    for (RevCommit parent : parents) {
+      time = Math.max(time, parent.getCommitTime());
+    }
+    PersonIdent ident = new PersonIdent("Unleash virtual merge base", "", time * 1000L, 0);
+    CommitBuilder commit = new CommitBuilder();
+    commit.setTreeId(tree);
+    commit.setParentIds(parents);
+    commit.setAuthor(ident);
+    commit.setCommitter(ident);
+    commit.setMessage("virtual merge base");
+    return RevCommit.parse(this.walk, commit.build());
+  }
+
+  private void clearMergeState() {
+    this.unmergedPaths.clear();
+    this.modifiedFiles.clear();
+    this.toBeCheckedOut.clear();
+    this.toBeDeleted.clear();
+    this.mergeResults.clear();
+    this.failingPaths.clear();
+  }
+
+  /**
+   * Deletes the files of {@link #toBeDeleted} in reverse order and checks out the entries of {@link #toBeCheckedOut}
+   * afterwards. The parent folders of the entries are created on the calling thread, the files themselves are written
+   * on a pool of threads which can be configured using <code>unleash.checkoutThreads</code>.
+   */
   private void checkout() throws NoWorkTreeException, IOException {
     // Iterate in reverse so that "folder/file" is deleted before
     // "folder". Otherwise this could result in a failing path because
     // of a non-empty directory, for which delete() would fail.
+    File workTree = this.db.getWorkTree();
     for (int i = this.toBeDeleted.size() - 1; i >= 0; i--) {
       String fileName = this.toBeDeleted.get(i);
-      File f = new File(this.db.getWorkTree(), fileName);
+      File f = new File(workTree, fileName);
       if (!f.delete()) {
         if (!f.isDirectory()) {
           this.failingPaths.put(fileName, MergeFailureReason.COULD_NOT_DELETE);
@@ -331,10 +578,14 @@ public class UnleashGitMerger extends ResolveMerger {
       }
       this.modifiedFiles.add(fileName);
     }
+
+    // the files are registered up front so that cleanUp() also restores files whose checkout has been interrupted
+    List<DirCacheEntry> entries = new ArrayList<DirCacheEntry>(this.toBeCheckedOut.size());
     for (Map.Entry<String, DirCacheEntry> entry : this.toBeCheckedOut.entrySet()) {
-      DirCacheCheckout.checkoutEntry(this.db, entry.getValue(), this.reader);
+      entries.add(entry.getValue());
       this.modifiedFiles.add(entry.getKey());
     }
+    checkoutEntries(entries);
   }
 
   /**
@@ -356,15 +607,70 @@ public class UnleashGitMerger extends ResolveMerger {
     }
 
     DirCache dc = this.db.readDirCache();
-    Iterator<String> mpathsIt = this.modifiedFiles.iterator();
-    while (mpathsIt.hasNext()) {
-      String mpath = mpathsIt.next();
+    List<DirCacheEntry> entries = new ArrayList<DirCacheEntry>(this.modifiedFiles.size());
+    for (String mpath : this.modifiedFiles) {
       DirCacheEntry entry = dc.getEntry(mpath);
       if (entry != null) {
-        DirCacheCheckout.checkoutEntry(this.db, entry, this.reader);
+        entries.add(entry);
       }
-      mpathsIt.remove();
     }
+    checkoutEntries(entries);
+    this.modifiedFiles.clear();
+  }
+
+  private void checkoutEntries(final List<DirCacheEntry> entries) throws IOException {
+    if (entries.isEmpty()) {
+      return;
+    }
+
+    // creating the parent folders up front prevents the workers from racing for the same folders
+    File workTree = this.db.getWorkTree();
+    Set<String> parents = new HashSet<String>();
+    for (DirCacheEntry entry : entries) {
+      String path = entry.getPathString();
+      int slash = path.lastIndexOf('/');
+      if (slash > 0 && parents.add(path.substring(0, slash))) {
+        FileUtils.mkdirs(new File(workTree, path.substring(0, slash)), true);
+      }
+    }
+
+    int threads = this.config.getInt(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_CHECKOUT_THREADS,
+        Runtime.getRuntime().availableProcessors());
+    runInParallel(threads, entries.size(), new ReaderTask() {
+      @Override
+      public void run(ObjectReader reader, int index) throws IOException {
+        DirCacheCheckout.checkoutEntry(UnleashGitMerger.this.db, entries.get(index), reader);
+      }
+    }, "check out the merged files");
+  }
+
+  /**
+   * Executes a task for the indexes <code>0</code> to <code>count - 1</code> using at most the given number of threads.
+   * Each thread reads through its own {@link ObjectReader} since readers are not thread-safe. If only one thread is
+   * requested the tasks are executed on the calling thread using the reader of this merger.
+   */
+  private void runInParallel(int threads, int count, final ReaderTask task, String description) throws IOException {
+    final boolean ownReader = Math.min(threads, count) == 1;
+    ParallelTaskRunner.run(threads, count, new WorkerFactory() {
+      @Override
+      public Worker newWorker() {
+        final ObjectReader reader = ownReader ? UnleashGitMerger.this.reader
+            : UnleashGitMerger.this.reader.newReader();
+        return new Worker() {
+          @Override
+          public void run(int index) throws IOException {
+            task.run(reader, index);
+          }
+
+          @Override
+          public void close() {
+            if (!ownReader) {
+              reader.close();
+            }
+          }
+        };
+      }
+    }, description);
   }
 
   /**
@@ -378,10 +684,17 @@ public class UnleashGitMerger extends ResolveMerger {
    * @return the entry which was added to the index
    */
   private DirCacheEntry add(byte[] path, CanonicalTreeParser p, int stage, long lastMod, long len) {
-    if (p != null && !p.getEntryFileMode().equals(FileMode.TREE)) {
+    if (p != null) {
+      return add(path, p.getEntryRawMode(), p.getEntryObjectId(), stage, lastMod, len);
+    }
+    return null;
+  }
+
+  private DirCacheEntry add(byte[] path, int mode, ObjectId id, int stage, long lastMod, long len) {
+    if (mode != 0 && !FileMode.TREE.equals(mode)) {
       DirCacheEntry e = new DirCacheEntry(path, stage);
-      e.setFileMode(p.getEntryFileMode());
-      e.setObjectId(p.getEntryObjectId());
+      e.setFileMode(FileMode.fromBits(mode));
+      e.setObjectId(id);
       e.setLastModified(lastMod);
       e.setLength(len);
       this.builder.add(e);
@@ -400,7 +713,13 @@ public class UnleashGitMerger extends ResolveMerger {
    * @return the entry which was added to the index
    */
   private DirCacheEntry keep(DirCacheEntry e) {
-    DirCacheEntry newEntry = new DirCacheEntry(e.getPathString(), e.getStage());
+    if (e == this.ownedOurDce) {
+      // the fake entry has been created for this merge only and doesn't need to be copied
+      this.builder.add(e);
+      return e;
+    }
+
+    DirCacheEntry newEntry = new DirCacheEntry(e.getRawPath(), e.getStage());
     newEntry.setFileMode(e.getFileMode());
     newEntry.setObjectId(e.getObjectId());
     newEntry.setLastModified(e.getLastModified());
@@ -461,6 +780,9 @@ public class UnleashGitMerger extends ResolveMerger {
       DirCacheBuildIterator index, WorkingTreeIterator work, boolean ignoreConflicts, Attributes attributes)
       throws MissingObjectException, IncorrectObjectTypeException, CorruptObjectException, IOException {
     this.enterSubtree = true;
+    this.currentRawPath = null;
+    this.currentPath = null;
+    this.ownedOurDce = null;
     final int modeO = this.tw.getRawMode(T_OURS);
     final int modeT = this.tw.getRawMode(T_THEIRS);
     final int modeB = this.tw.getRawMode(T_BASE);
@@ -480,9 +802,10 @@ public class UnleashGitMerger extends ResolveMerger {
       // create a fake DCE, but only if ours is valid. ours is kept only
       // in case it is valid, so a null ourDce is ok in all other cases.
       if (nonTree(modeO)) {
-        ourDce = new DirCacheEntry(this.tw.getRawPath());
+        ourDce = new DirCacheEntry(getCurrentRawPath());
         ourDce.setObjectId(this.tw.getObjectId(T_OURS));
         ourDce.setFileMode(this.tw.getFileMode(T_OURS));
+        this.ownedOurDce = ourDce;
       }
     } else {
       ourDce = index.getDirCacheEntry();
@@ -514,18 +837,18 @@ public class UnleashGitMerger extends ResolveMerger {
             }
             // we know about length and lastMod only after we have written the new content.
             // This will happen later. Set these values to 0 for know.
-            DirCacheEntry e = add(this.tw.getRawPath(), theirs, DirCacheEntry.STAGE_0, 0, 0);
-            this.toBeCheckedOut.put(this.tw.getPathString(), e);
+            DirCacheEntry e = add(getCurrentRawPath(), theirs, DirCacheEntry.STAGE_0, 0, 0);
+            this.toBeCheckedOut.put(getCurrentPath(), e);
           }
           return true;
         } else {
           // FileModes are not mergeable. We found a conflict on modes.
           // For conflicting entries we don't know lastModified and length.
-          add(this.tw.getRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
-          add(this.tw.getRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
-          add(this.tw.getRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
-          this.unmergedPaths.add(this.tw.getPathString());
-          this.mergeResults.put(this.tw.getPathString(), new MergeResult<RawText>(Collections.<RawText> emptyList()));
+          add(getCurrentRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
+          add(getCurrentRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
+          add(getCurrentRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
+          this.unmergedPaths.add(getCurrentPath());
+          this.mergeResults.put(getCurrentPath(), new MergeResult<RawText>(Collections.<RawText> emptyList()));
         }
         return true;
       }
@@ -553,9 +876,9 @@ public class UnleashGitMerger extends ResolveMerger {
         // we know about length and lastMod only after we have written
         // the new content.
         // This will happen later. Set these values to 0 for know.
-        DirCacheEntry e = add(this.tw.getRawPath(), theirs, DirCacheEntry.STAGE_0, 0, 0);
+        DirCacheEntry e = add(getCurrentRawPath(), theirs, DirCacheEntry.STAGE_0, 0, 0);
         if (e != null) {
-          this.toBeCheckedOut.put(this.tw.getPathString(), e);
+          this.toBeCheckedOut.put(getCurrentPath(), e);
         }
         return true;
       } else {
@@ -567,7 +890,7 @@ public class UnleashGitMerger extends ResolveMerger {
         if (this.tw.getTreeCount() > T_FILE && this.tw.getRawMode(T_FILE) == 0) {
           return true;
         }
-        this.toBeDeleted.add(this.tw.getPathString());
+        this.toBeDeleted.add(getCurrentPath());
         return true;
       }
     }
@@ -579,19 +902,19 @@ public class UnleashGitMerger extends ResolveMerger {
       // detected later
       if (nonTree(modeO) && !nonTree(modeT)) {
         if (nonTree(modeB)) {
-          add(this.tw.getRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
+          add(getCurrentRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
         }
-        add(this.tw.getRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
-        this.unmergedPaths.add(this.tw.getPathString());
+        add(getCurrentRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
+        this.unmergedPaths.add(getCurrentPath());
         this.enterSubtree = false;
         return true;
       }
       if (nonTree(modeT) && !nonTree(modeO)) {
         if (nonTree(modeB)) {
-          add(this.tw.getRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
+          add(getCurrentRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
         }
-        add(this.tw.getRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
-        this.unmergedPaths.add(this.tw.getPathString());
+        add(getCurrentRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
+        this.unmergedPaths.add(getCurrentPath());
         this.enterSubtree = false;
         return true;
       }
@@ -616,29 +939,32 @@ public class UnleashGitMerger extends ResolveMerger {
 
       // Don't attempt to resolve submodule link conflicts
       if (isGitLink(modeO) || isGitLink(modeT)) {
-        add(this.tw.getRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
-        add(this.tw.getRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
-        add(this.tw.getRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
-        this.unmergedPaths.add(this.tw.getPathString());
+        add(getCurrentRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
+        add(getCurrentRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
+        add(getCurrentRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
+        this.unmergedPaths.add(getCurrentPath());
+        return true;
+      }
+
+      // binary files are not passed to the merge client but resolved according to the configured strategy
+      if (isBinary(attributes, base, ours, theirs)) {
+        resolveBinary(base, ours, theirs, ourDce, ignoreConflicts);
         return true;
       }
 
-      MergeResult<RawText> result = contentMerge(base, ours, theirs);
-      // if (ignoreConflicts) {
-      // result.setContainsConflicts(false);
-      // }
-      updateIndex(base, ours, theirs, result);
-      if (result.containsConflicts() && !ignoreConflicts) {
-        this.unmergedPaths.add(this.tw.getPathString());
+      // the content merge is done after the tree walk
+      ContentMergeJob job = new ContentMergeJob(getCurrentRawPath(), getCurrentPath(), base, ours, theirs, false);
+      if (this.mergeDrivers != null) {
+        job.driverName = this.mergeDrivers.getDriverName(job.path, attributes);
       }
-      this.modifiedFiles.add(this.tw.getPathString());
+      this.contentMergeJobs.add(job);
     } else if (modeO != modeT) {
       // OURS or THEIRS has been deleted
       if (modeO != 0 && !this.tw.idEqual(T_BASE, T_OURS) || modeT != 0 && !this.tw.idEqual(T_BASE, T_THEIRS)) {
 
-        add(this.tw.getRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
-        add(this.tw.getRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
-        DirCacheEntry e = add(this.tw.getRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
+        add(getCurrentRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
+        add(getCurrentRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
+        DirCacheEntry e = add(getCurrentRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
 
         // OURS was deleted checkout THEIRS
         if (modeO == 0) {
@@ -648,44 +974,274 @@ public class UnleashGitMerger extends ResolveMerger {
           }
           if (nonTree(modeT)) {
             if (e != null) {
-              this.toBeCheckedOut.put(this.tw.getPathString(), e);
+              this.toBeCheckedOut.put(getCurrentPath(), e);
             }
           }
         }
 
-        this.unmergedPaths.add(this.tw.getPathString());
+        this.unmergedPaths.add(getCurrentPath());
 
-        // generate a MergeResult for the deleted file
-        this.mergeResults.put(this.tw.getPathString(), contentMerge(base, ours, theirs));
+        // generate a MergeResult for the deleted file after the tree walk
+        if (isBinary(attributes, base, ours, theirs)) {
+          this.mergeResults.put(getCurrentPath(), new MergeResult<RawText>(Collections.<RawText> emptyList()));
+        } else {
+          this.contentMergeJobs
+              .add(new ContentMergeJob(getCurrentRawPath(), getCurrentPath(), base, ours, theirs, true));
+        }
       }
     }
     return true;
   }
 
-  // TODO this is the main adaption of this class -> merge delegation to the mergeclient
-  private MergeResult<RawText> contentMerge(CanonicalTreeParser base, CanonicalTreeParser ours,
+  /**
+   * @return the raw path of the entry that is currently processed. The array is shared by all {@link DirCacheEntry
+   *         DirCacheEntries} that are created for this entry and must therefore not be modified.
+   */
+  private byte[] getCurrentRawPath() {
+    if (this.currentRawPath == null) {
+      this.currentRawPath = this.tw.getRawPath();
+    }
+    return this.currentRawPath;
+  }
+
+  private String getCurrentPath() {
+    if (this.currentPath == null) {
+      this.currentPath = RawParseUtils.decode(Constants.CHARSET, getCurrentRawPath());
+    }
+    return this.currentPath;
+  }
+
+  /**
+   * Checks whether a path must not be passed to the merge client since it is binary. This is the case if the
+   * <code>.gitattributes</code> mark the path as <code>binary</code> or <code>-merge</code> or if the first block of
+   * one of the blobs contains binary content.
+   */
+  private boolean isBinary(Attributes attributes, CanonicalTreeParser base, CanonicalTreeParser ours,
       CanonicalTreeParser theirs) throws IOException {
-    InputStream localIn = getInputStream(ours.getEntryObjectId());
-    InputStream remoteIn = getInputStream(theirs.getEntryObjectId());
-    InputStream baseIn = getInputStream(base.getEntryObjectId());
-    ByteArrayOutputStream resultOut = new ByteArrayOutputStream();
+    if (attributes.isSet("binary") || attributes.isUnset("merge")) {
+      return true;
+    }
+    if (attributes.isSet("merge") || attributes.isUnset("binary")) {
+      // explicitly marked as mergeable
+      return false;
+    }
+    return isBinary(ours) || isBinary(theirs) || isBinary(base);
+  }
 
-    this.mergeClient.merge(localIn, remoteIn, baseIn, resultOut);
-    RawText resultText = new RawText(resultOut.toByteArray());
+  private boolean isBinary(CanonicalTreeParser p) throws IOException {
+    if (p == null || !nonTree(p.getEntryRawMode()) || isGitLink(p.getEntryRawMode())) {
+      return false;
+    }
+    return this.binarySniffer.isBinary(p.getEntryObjectId());
+  }
 
+  /**
+   * Resolves a binary path according to <code>unleash.binaryMergeStrategy</code> without reading the blobs. In case
+   * of a conflict the working tree keeps our version.
+   */
+  private void resolveBinary(CanonicalTreeParser base, CanonicalTreeParser ours, CanonicalTreeParser theirs,
+      DirCacheEntry ourDce, boolean ignoreConflicts) {
+    BinaryMergeStrategy strategy = this.config.getEnum(GitUtil.CONFIG_SECTION_UNLEASH, null,
+        CONFIG_KEY_BINARY_MERGE_STRATEGY, BinaryMergeStrategy.CONFLICT);
+    if (strategy == BinaryMergeStrategy.CONFLICT && ignoreConflicts) {
+      // conflicts shall not be recorded (e.g. for virtual merge bases), ours is taken as the merged version
+      strategy = BinaryMergeStrategy.OURS;
+    }
+
+    switch (strategy) {
+      case OURS:
+        keep(ourDce);
+        break;
+      case THEIRS:
+        // we know about length and lastMod only after we have written the new content.
+        DirCacheEntry e = add(getCurrentRawPath(), theirs, DirCacheEntry.STAGE_0, 0, 0);
+        this.toBeCheckedOut.put(getCurrentPath(), e);
+        break;
+      default:
+        add(getCurrentRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
+        add(getCurrentRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
+        add(getCurrentRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
+        this.unmergedPaths.add(getCurrentPath());
+        this.mergeResults.put(getCurrentPath(), new MergeResult<RawText>(Collections.<RawText> emptyList()));
+        break;
+    }
+  }
+
+  /**
+   * Executes all content merges that have been collected during the tree walk and applies their results in path order.
+   * By default all {@link MergeClient} calls are executed on the calling thread. Setting
+   * <code>unleash.mergeThreads</code> to a value greater than <code>1</code> distributes them on a bounded pool of
+   * threads, each of them reading the blobs through its own {@link ObjectReader}. This requires a merge client that can
+   * handle concurrent calls, see {@link UnleashGitFullMergeStrategy}.
+   *
+   * @throws IOException
+   */
+  private void runContentMerges() throws IOException {
+    List<ContentMergeJob> allJobs = this.contentMergeJobs;
+    this.contentMergeJobs = new ArrayList<ContentMergeJob>();
+    if (allJobs.isEmpty()) {
+      return;
+    }
+
+    // identical merges that have already been done before don't need to be passed to the merge client again
+    final List<ContentMergeJob> jobs = new ArrayList<ContentMergeJob>(allJobs.size());
+    for (ContentMergeJob job : allJobs) {
+      if (!job.deletion && !this.virtualMerge) {
+        job.cachedResultId = this.mergeResultCache.get(this.reader, job.baseId, job.oursId, job.theirsId,
+            job.driverName);
+      }
+      if (job.cachedResultId == null) {
+        jobs.add(job);
+      }
+    }
+
+    // the textual merges of a virtual merge base may need objects that have not been flushed yet
+    int threads = this.virtualMerge ? 1
+        : this.config.getInt(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_MERGE_THREADS, 1);
+    try {
+      // the results of the merges that succeeded are destroyed below if another merge fails
+      runInParallel(threads, jobs.size(), new ReaderTask() {
+        @Override
+        public void run(ObjectReader reader, int index) throws IOException {
+          ContentMergeJob job = jobs.get(index);
+          job.result = contentMerge(reader, job);
+        }
+      }, "merge the file contents");
+
+      for (ContentMergeJob job : allJobs) {
+        if (job.deletion) {
+          this.mergeResults.put(job.path, toMergeResult(job.result));
+          continue;
+        }
+
+        updateIndex(job);
+        this.modifiedFiles.add(job.path);
+      }
+      this.mergeResultCache.prune();
+    } finally {
+      for (ContentMergeJob job : allJobs) {
+        if (job.result != null) {
+          job.result.destroy();
+        }
+      }
+    }
+  }
+
+  // TODO this is the main adaption of this class -> merge delegation to the mergeclient
+  /**
+   * Lets the merge driver selected for the path or the merge client merge the contents of a path. The merged content
+   * is buffered in memory up to {@link #MERGE_BUFFER_IN_CORE_LIMIT} bytes and spilled to a temporary file beyond that
+   * limit.
+   */
+  private TemporaryBuffer contentMerge(ObjectReader reader, ContentMergeJob job) throws IOException {
+    if (this.virtualMerge) {
+      return textMerge(reader, job);
+    }
+    if (job.driverName != null) {
+      TemporaryBuffer driverResult = driverMerge(reader, job, this.mergeDrivers.getDriver(job.driverName));
+      if (driverResult != null) {
+        return driverResult;
+      }
+    }
+
+    InputStream localIn = getInputStream(reader, job.oursId);
+    InputStream remoteIn = getInputStream(reader, job.theirsId);
+    InputStream baseIn = getInputStream(reader, job.baseId);
+    TemporaryBuffer resultOut = new TemporaryBuffer.LocalFile(getTempDirectory(), MERGE_BUFFER_IN_CORE_LIMIT);
+    try {
+      this.mergeClient.merge(localIn, remoteIn, baseIn, resultOut);
+      resultOut.close();
+    } catch (RuntimeException e) {
+      resultOut.destroy();
+      throw e;
+    } catch (IOException e) {
+      resultOut.destroy();
+      throw e;
+    } finally {
+      Closeables.closeQuietly(localIn);
+      Closeables.closeQuietly(remoteIn);
+      Closeables.closeQuietly(baseIn);
+    }
+    return resultOut;
+  }
+
+  /**
+   * Merges the contents of a path using the textual merge algorithm and records conflicts as conflict markers.
+   */
+  private TemporaryBuffer textMerge(ObjectReader reader, ContentMergeJob job) throws IOException {
+    MergeResult<RawText> result = this.mergeAlgorithm.merge(RawTextComparator.DEFAULT,
+        getRawText(reader, job.baseId), getRawText(reader, job.oursId), getRawText(reader, job.theirsId));
+    TemporaryBuffer resultOut = new TemporaryBuffer.LocalFile(getTempDirectory(), MERGE_BUFFER_IN_CORE_LIMIT);
+    try {
+      new MergeFormatter().formatMerge(resultOut, result, Arrays.asList(this.commitNames),
+          Constants.CHARACTER_ENCODING);
+      resultOut.close();
+    } catch (IOException e) {
+      resultOut.destroy();
+      throw e;
+    }
+    return resultOut;
+  }
+
+  private RawText getRawText(ObjectReader reader, ObjectId id) throws IOException {
+    if (id == null || id.equals(ObjectId.zeroId())) {
+      return new RawText(new byte[0]);
+    }
+    return new RawText(reader.open(id, OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE));
+  }
+
+  /**
+   * Lets a {@link MergeDriver} merge the contents of a path.
+   *
+   * @return the merged content or <code>null</code> if the driver could not merge the contents.
+   */
+  private TemporaryBuffer driverMerge(ObjectReader reader, ContentMergeJob job, MergeDriver driver)
+      throws IOException {
+    InputStream baseIn = getInputStream(reader, job.baseId);
+    InputStream oursIn = getInputStream(reader, job.oursId);
+    InputStream theirsIn = getInputStream(reader, job.theirsId);
+    TemporaryBuffer resultOut = new TemporaryBuffer.LocalFile(getTempDirectory(), MERGE_BUFFER_IN_CORE_LIMIT);
+    boolean merged = false;
+    try {
+      merged = driver.merge(baseIn, oursIn, theirsIn, resultOut);
+      resultOut.close();
+    } finally {
+      if (!merged) {
+        resultOut.destroy();
+      }
+      Closeables.closeQuietly(baseIn);
+      Closeables.closeQuietly(oursIn);
+      Closeables.closeQuietly(theirsIn);
+    }
+    return merged ? resultOut : null;
+  }
+
+  /**
+   * @return the git directory for spilled merge results or <code>null</code> for the system's temporary directory if
+   *         there is no local repository.
+   */
+  private File getTempDirectory() {
+    return this.db != null ? this.db.getDirectory() : null;
+  }
+
+  /**
+   * Creates the textual merge result that is reported to the callers. This is only required for paths that cannot be
+   * merged at all.
+   */
+  private MergeResult<RawText> toMergeResult(TemporaryBuffer content) throws IOException {
+    RawText resultText = new RawText(content.toByteArray());
     List<RawText> sequences = new ArrayList<RawText>(1);
     sequences.add(resultText);
     MergeResult<RawText> result = new MergeResult<RawText>(sequences);
     result.add(0, 0, resultText.size(), ConflictState.NO_CONFLICT);
-
     return result;
   }
 
-  private InputStream getInputStream(ObjectId id) throws IOException {
-    if (id.equals(ObjectId.zeroId())) {
+  private InputStream getInputStream(ObjectReader reader, ObjectId id) throws IOException {
+    if (id == null || id.equals(ObjectId.zeroId())) {
       return null;
     }
-    return this.reader.open(id, OBJ_BLOB).openStream();
+    return reader.open(id, OBJ_BLOB).openStream();
   }
 
   private boolean isIndexDirty() {
@@ -699,7 +1255,7 @@ public class UnleashGitMerger extends ResolveMerger {
     // Index entry has to match ours to be considered clean
     final boolean isDirty = nonTree(modeI) && !(modeO == modeI && this.tw.idEqual(T_INDEX, T_OURS));
     if (isDirty) {
-      this.failingPaths.put(this.tw.getPathString(), MergeFailureReason.DIRTY_INDEX);
+      this.failingPaths.put(getCurrentPath(), MergeFailureReason.DIRTY_INDEX);
     }
     return isDirty;
   }
@@ -728,106 +1284,100 @@ public class UnleashGitMerger extends ResolveMerger {
       isDirty = false;
     }
     if (isDirty) {
-      this.failingPaths.put(this.tw.getPathString(), MergeFailureReason.DIRTY_WORKTREE);
+      this.failingPaths.put(getCurrentPath(), MergeFailureReason.DIRTY_WORKTREE);
     }
     return isDirty;
   }
 
   /**
-   * Updates the index after a content merge has happened. If no conflict has
-   * occurred this includes persisting the merged content to the object
-   * database. In case of conflicts this method takes care to write the
-   * correct stages to the index.
+   * Updates the index after a content merge has happened. The merged content is persisted to the object database and
+   * the index is populated with the new merged version. Since the merge client resolves all conflicts itself there
+   * are never any conflict stages to write.<br>
+   * If the working tree is used, the merged content is written to the working tree file in the same pass in which it
+   * is hashed and inserted into the object database. Merge results taken from the {@link MergeResultCache} are
+   * already present in the object database and are only checked out.
    *
-   * @param base
-   * @param ours
-   * @param theirs
-   * @param result
+   * @param job
    * @throws FileNotFoundException
    * @throws IOException
    */
-  private void updateIndex(CanonicalTreeParser base, CanonicalTreeParser ours, CanonicalTreeParser theirs,
-      MergeResult<RawText> result) throws FileNotFoundException, IOException {
-    File mergedFile = !this.inCore ? writeMergedFile(result) : null;
-    if (result.containsConflicts()) {
-      // A conflict occurred, the file will contain conflict markers
-      // the index will be populated with the three stages and the
-      // workdir (if used) contains the halfway merged content.
-      add(this.tw.getRawPath(), base, DirCacheEntry.STAGE_1, 0, 0);
-      add(this.tw.getRawPath(), ours, DirCacheEntry.STAGE_2, 0, 0);
-      add(this.tw.getRawPath(), theirs, DirCacheEntry.STAGE_3, 0, 0);
-      this.mergeResults.put(this.tw.getPathString(), result);
-      return;
-    }
-
-    // No conflict occurred, the file will contain fully merged content.
-    // The index will be populated with the new merged version.
-    DirCacheEntry dce = new DirCacheEntry(this.tw.getPathString());
+  private void updateIndex(ContentMergeJob job) throws FileNotFoundException, IOException {
+    DirCacheEntry dce = new DirCacheEntry(job.rawPath);
 
     // Set the mode for the new content. Fall back to REGULAR_FILE if
     // we can't merge modes of OURS and THEIRS.
-    int newMode = mergeFileModes(this.tw.getRawMode(0), this.tw.getRawMode(1), this.tw.getRawMode(2));
+    int newMode = mergeFileModes(job.baseMode, job.oursMode, job.theirsMode);
     dce.setFileMode(newMode == FileMode.MISSING.getBits() ? FileMode.REGULAR_FILE : FileMode.fromBits(newMode));
-    if (mergedFile != null) {
-      long len = mergedFile.length();
-      dce.setLastModified(mergedFile.lastModified());
-      dce.setLength((int) len);
-      InputStream is = new FileInputStream(mergedFile);
+
+    File mergedFile = null;
+    OutputStream fileOut = null;
+    if (!this.inCore) {
+      mergedFile = createMergedFile(job.path);
+      fileOut = new BufferedOutputStream(new FileOutputStream(mergedFile));
+    }
+
+    long length;
+    if (job.cachedResultId != null) {
+      ObjectLoader loader = this.reader.open(job.cachedResultId, OBJ_BLOB);
+      length = loader.getSize();
+      if (fileOut != null) {
+        try {
+          loader.copyTo(fileOut);
+          fileOut.close();
+          fileOut = null;
+        } finally {
+          Closeables.close(fileOut, true);
+        }
+      }
+      dce.setObjectId(job.cachedResultId);
+    } else {
+      TemporaryBuffer content = job.result;
+      length = content.length();
+      InputStream in = null;
       try {
-        dce.setObjectId(getObjectInserter().insert(OBJ_BLOB, len, is));
+        in = content.openInputStream();
+        if (fileOut != null) {
+          in = new TeeInputStream(in, fileOut);
+          fileOut = null;
+        }
+        dce.setObjectId(getObjectInserter().insert(OBJ_BLOB, length, in));
+        // closing the tee also flushes and closes the working tree file
+        in.close();
+        in = null;
       } finally {
-        is.close();
+        Closeables.closeQuietly(in);
+        Closeables.close(fileOut, true);
       }
-    } else {
-      dce.setObjectId(insertMergeResult(result));
+      if (!this.virtualMerge) {
+        this.mergeResultCache.put(job.baseId, job.oursId, job.theirsId, job.driverName, dce.getObjectId());
+      }
+    }
+
+    if (mergedFile != null) {
+      dce.setLastModified(mergedFile.lastModified());
+      dce.setLength((int) length);
     }
     this.builder.add(dce);
   }
 
   /**
-   * Writes merged file content to the working tree.
+   * Creates the working tree file for the merged content of a path including missing parent folders.
    *
-   * @param result
-   *                 the result of the content merge
-   * @return the working tree file to which the merged content was written.
-   * @throws FileNotFoundException
-   * @throws IOException
+   * @param path
+   *               the path of the merged file
+   * @return the working tree file to which the merged content shall be written.
    */
-  private File writeMergedFile(MergeResult<RawText> result) throws FileNotFoundException, IOException {
+  private File createMergedFile(String path) {
     File workTree = this.db.getWorkTree();
     FS fs = this.db.getFS();
-    File of = new File(workTree, this.tw.getPathString());
+    File of = new File(workTree, path);
     File parentFolder = of.getParentFile();
     if (!fs.exists(parentFolder)) {
       parentFolder.mkdirs();
     }
-    OutputStream os = null;
-    try {
-      os = new BufferedOutputStream(new FileOutputStream(of));
-      new MergeFormatter().formatMerge(os, result, Arrays.asList(this.commitNames), CHARACTER_ENCODING);
-    } finally {
-      Closeables.close(os, true);
-    }
     return of;
   }
 
-  private ObjectId insertMergeResult(MergeResult<RawText> result) throws IOException {
-    TemporaryBuffer.LocalFile buf = new TemporaryBuffer.LocalFile(this.db.getDirectory(), 10 << 20);
-    try {
-      new MergeFormatter().formatMerge(buf, result, Arrays.asList(this.commitNames), CHARACTER_ENCODING);
-      buf.close();
-      InputStream in = null;
-      try {
-        in = buf.openInputStream();
-        return getObjectInserter().insert(OBJ_BLOB, buf.length(), in);
-      } finally {
-        Closeables.closeQuietly(in);
-      }
-    } finally {
-      buf.destroy();
-    }
-  }
-
   /**
    * Try to merge filemodes. If only ours or theirs have changed the mode
    * (compared to base) we choose that one. If ours and theirs have equal
@@ -1023,13 +1573,16 @@ public class UnleashGitMerger extends ResolveMerger {
     this.builder = this.dircache.builder();
     DirCacheBuildIterator buildIt = new DirCacheBuildIterator(this.builder);
 
-    this.tw = new NameConflictTreeWalk(this.reader);
+    // only a walk of a repository provides the .gitattributes of the trees, just like JGit's ResolveMerger does
+    this.tw = this.db != null ? new NameConflictTreeWalk(this.db, this.reader) : new NameConflictTreeWalk(this.reader);
     this.tw.addTree(baseTree);
     this.tw.addTree(headTree);
     this.tw.addTree(mergeTree);
     this.tw.addTree(buildIt);
     if (this.workingTreeIterator != null) {
       this.tw.addTree(this.workingTreeIterator);
+      // the index entries and working tree files of skipped paths are kept, staged changes are still visited
+      this.tw.setFilter(MergeSidesDifferFilter.INSTANCE);
     } else {
       this.tw.setFilter(TreeFilter.ANY_DIFF);
     }
@@ -1090,6 +1643,8 @@ public class UnleashGitMerger extends ResolveMerger {
           treeWalk.getTree(T_INDEX, DirCacheBuildIterator.class),
           hasWorkingTreeIterator ? treeWalk.getTree(T_FILE, WorkingTreeIterator.class) : null, ignoreConflicts,
           hasAttributeNodeProvider ? treeWalk.getAttributes() : new Attributes())) {
+        // nothing has been written for the pending content merges yet
+        this.contentMergeJobs.clear();
         cleanUp();
         return false;
       }
@@ -1097,6 +1652,86 @@ public class UnleashGitMerger extends ResolveMerger {
         treeWalk.enterSubtree();
       }
     }
+    runContentMerges();
     return true;
   }
+
+  /**
+   * A unit of work of {@link UnleashGitMerger#runInParallel(int, int, ReaderTask, String)}.
+   */
+  private interface ReaderTask {
+    void run(ObjectReader reader, int index) throws IOException;
+  }
+
+  /**
+   * A content merge of a single path. All data of the tree walk that is needed for the merge and for applying its
+   * result is copied since the walk has already moved on when the merge is executed.
+   */
+  private static class ContentMergeJob {
+    private final byte[] rawPath;
+    private final String path;
+    private final int baseMode;
+    private final int oursMode;
+    private final int theirsMode;
+    private final ObjectId baseId;
+    private final ObjectId oursId;
+    private final ObjectId theirsId;
+    private final boolean deletion;
+    private String driverName;
+    private TemporaryBuffer result;
+    private ObjectId cachedResultId;
+
+    private ContentMergeJob(byte[] rawPath, String path, CanonicalTreeParser base, CanonicalTreeParser ours,
+        CanonicalTreeParser theirs, boolean deletion) {
+      this.rawPath = rawPath;
+      this.path = path;
+      this.baseMode = base != null ? base.getEntryRawMode() : 0;
+      this.oursMode = ours != null ? ours.getEntryRawMode() : 0;
+      this.theirsMode = theirs != null ? theirs.getEntryRawMode() : 0;
+      this.baseId = base != null ? base.getEntryObjectId() : null;
+      this.oursId = ours != null ? ours.getEntryObjectId() : null;
+      this.theirsId = theirs != null ? theirs.getEntryObjectId() : null;
+      this.deletion = deletion;
+    }
+  }
+
+  /**
+   * Skips all paths, including whole subtrees, that are equal in base, ours, theirs and the index. Such paths are not
+   * affected by the merge which allows to skip the working tree checks for them. Skipped index entries are kept by the
+   * {@link DirCacheBuildIterator}.<br>
+   * Paths whose index entry differs from ours are always visited so that staged changes fail the merge with
+   * {@link MergeFailureReason#DIRTY_INDEX} instead of ending up in the merge commit. Subtrees without a valid cache tree
+   * in the index are entered as well.<br>
+   * This filter must not be used if the index is not initialized with ours, e.g. for in-core merges, since the skipped
+   * paths would be missing in the result.
+   */
+  private static class MergeSidesDifferFilter extends TreeFilter {
+    private static final MergeSidesDifferFilter INSTANCE = new MergeSidesDifferFilter();
+
+    @Override
+    public boolean include(TreeWalk walker) {
+      int modeB = walker.getRawMode(T_BASE);
+      if (modeB != walker.getRawMode(T_OURS) || modeB != walker.getRawMode(T_THEIRS)
+          || modeB != walker.getRawMode(T_INDEX)) {
+        return true;
+      }
+      return modeB != 0 && !(walker.idEqual(T_BASE, T_OURS) && walker.idEqual(T_BASE, T_THEIRS)
+          && walker.idEqual(T_OURS, T_INDEX));
+    }
+
+    @Override
+    public boolean shouldBeRecursive() {
+      return false;
+    }
+
+    @Override
+    public TreeFilter clone() {
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return "MERGE_SIDES_DIFFER";
+    }
+  }
 }
@@ -0,0 +1,108 @@
+package com.itemis.maven.plugins.unleash.scm.providers.results;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The outcome of an in-core merge that has been performed to check whether remote changes can be merged into the
+ * local working copy. Neither the working tree nor the index have been touched to calculate this result.
+ */
+public class MergePreflightResult {
+  public enum Status {
+    /** The local branch already contains the remote changes. */
+    UP_TO_DATE,
+    /** The local branch can be fast-forwarded to the remote revision. */
+    FAST_FORWARD,
+    /** The remote changes can be merged without conflicts. */
+    MERGEABLE,
+    /** Merging the remote changes results in conflicts. */
+    CONFLICTING
+  }
+
+  private final Status status;
+  private final String targetRevision;
+  private final List<String> conflictingPaths;
+  private final Set<String> dirtyPaths;
+  private final int contentMerges;
+  private final int checkouts;
+  private final long durationMillis;
+
+  public MergePreflightResult(Status status, String targetRevision, List<String> conflictingPaths,
+      Set<String> dirtyPaths, int contentMerges, int checkouts, long durationMillis) {
+    this.status = status;
+    this.targetRevision = targetRevision;
+    this.conflictingPaths = Collections.unmodifiableList(conflictingPaths);
+    this.dirtyPaths = Collections.unmodifiableSet(dirtyPaths);
+    this.contentMerges = contentMerges;
+    this.checkouts = checkouts;
+    this.durationMillis = durationMillis;
+  }
+
+  public Status getStatus() {
+    return this.status;
+  }
+
+  /**
+   * @return <code>true</code> if the real merge is expected to succeed, which requires that there are no conflicts
+   *         and that none of the paths touched by the merge has local changes.
+   */
+  public boolean canMerge() {
+    return this.status != Status.CONFLICTING && this.dirtyPaths.isEmpty();
+  }
+
+  /**
+   * @return the id of the commit the preflight merged with.
+   */
+  public String getTargetRevision() {
+    return this.targetRevision;
+  }
+
+  public List<String> getConflictingPaths() {
+    return this.conflictingPaths;
+  }
+
+  /**
+   * @return the paths touched by the merge that have uncommitted local changes. The merge into the working copy would
+   *         fail for these paths.
+   */
+  public Set<String> getDirtyPaths() {
+    return this.dirtyPaths;
+  }
+
+  /**
+   * @return the number of paths whose contents had to be merged.
+   */
+  public int getContentMerges() {
+    return this.contentMerges;
+  }
+
+  /**
+   * @return the number of paths that would be checked out from the remote revision.
+   */
+  public int getCheckouts() {
+    return this.checkouts;
+  }
+
+  /**
+   * @return the time the in-core merge took.
+   */
+  public long getDurationMillis() {
+    return this.durationMillis;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(this.status.name());
+    sb.append(" (target: ").append(this.targetRevision).append(", content merges: ").append(this.contentMerges)
+        .append(", checkouts: ").append(this.checkouts).append(", duration: ").append(this.durationMillis)
+        .append("ms");
+    if (!this.conflictingPaths.isEmpty()) {
+      sb.append(", conflicts: ").append(this.conflictingPaths);
+    }
+    if (!this.dirtyPaths.isEmpty()) {
+      sb.append(", dirty: ").append(this.dirtyPaths);
+    }
+    return sb.append(')').toString();
+  }
+}
@@ -0,0 +1,69 @@
+package com.itemis.maven.plugins.unleash.scm.providers.results;
+
+import com.google.common.base.Optional;
+
+/**
+ * The outcome of the creation or deletion of a single tag or branch as part of a batch operation.
+ */
+public class RefChangeResult {
+  public enum Status {
+    /** The ref was created or deleted locally and, if requested, on the remote. */
+    OK,
+    /** The ref to delete exists neither locally nor on the remote. */
+    NOT_FOUND,
+    /** The local ref could not be created or deleted, e.g. because a ref with this name already exists. */
+    REJECTED,
+    /** The local ref change succeeded but the remote did not accept the push of the change. */
+    PUSH_FAILED
+  }
+
+  private final String name;
+  private final Status status;
+  private final Optional<String> objectId;
+  private final Optional<String> message;
+
+  public RefChangeResult(String name, Status status, String objectId, String message) {
+    this.name = name;
+    this.status = status;
+    this.objectId = Optional.fromNullable(objectId);
+    this.message = Optional.fromNullable(message);
+  }
+
+  /**
+   * @return the short name of the tag or branch.
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  public Status getStatus() {
+    return this.status;
+  }
+
+  public boolean isSuccess() {
+    return this.status == Status.OK;
+  }
+
+  /**
+   * @return the id of the object the ref points to after its creation or pointed to before its deletion.
+   */
+  public Optional<String> getObjectId() {
+    return this.objectId;
+  }
+
+  /**
+   * @return a description of the failure if the change was not successful.
+   */
+  public Optional<String> getMessage() {
+    return this.message;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(this.name).append(": ").append(this.status);
+    if (this.message.isPresent()) {
+      sb.append(" (").append(this.message.get()).append(')');
+    }
+    return sb.toString();
+  }
+}
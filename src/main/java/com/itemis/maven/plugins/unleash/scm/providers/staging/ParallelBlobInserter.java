@@ -0,0 +1,107 @@
+package com.itemis.maven.plugins.unleash.scm.providers.staging;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CoreConfig.EolStreamType;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+
+import com.google.common.collect.Lists;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+import com.itemis.maven.plugins.unleash.scm.providers.util.ParallelTaskRunner;
+import com.itemis.maven.plugins.unleash.scm.providers.util.ParallelTaskRunner.Worker;
+import com.itemis.maven.plugins.unleash.scm.providers.util.ParallelTaskRunner.WorkerFactory;
+
+/**
+ * Hashes, compresses and inserts the blobs of staged files on a pool of worker threads. Each worker writes through its
+ * own {@link ObjectInserter} since inserters are not thread-safe. The object ids are set on the queued
+ * {@link DirCacheEntry DirCacheEntries} so that the index edits can still be applied in path order by the caller.<br>
+ * Only files that are stored as they are can be inserted in parallel. Files that require EOL conversion or a clean
+ * filter must be read through the {@link WorkingTreeIterator} and are thus inserted by the caller.
+ */
+class ParallelBlobInserter {
+  public static final String CONFIG_KEY_THREADS = "stagingThreads";
+
+  private final Repository repo;
+  private final int threads;
+  private final List<DirCacheEntry> entries;
+  private final List<File> files;
+  private final List<Long> lengths;
+
+  ParallelBlobInserter(Repository repo) {
+    this.repo = repo;
+    this.threads = repo.getConfig().getInt(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_THREADS,
+        Runtime.getRuntime().availableProcessors());
+    this.entries = Lists.newArrayList();
+    this.files = Lists.newArrayList();
+    this.lengths = Lists.newArrayList();
+  }
+
+  boolean isEnabled() {
+    return this.threads > 1;
+  }
+
+  boolean accepts(WorkingTreeIterator work, FileMode mode) throws IOException {
+    return isEnabled() && (FileMode.REGULAR_FILE.equals(mode) || FileMode.EXECUTABLE_FILE.equals(mode))
+        && work.getEolStreamType() == EolStreamType.DIRECT && work.getCleanFilterCommand() == null;
+  }
+
+  /**
+   * Queues the blob of a file for insertion.
+   */
+  void add(DirCacheEntry entry, File file, long length) {
+    this.entries.add(entry);
+    this.files.add(file);
+    this.lengths.add(length);
+  }
+
+  /**
+   * Inserts all queued blobs and sets the resulting object ids on the queued entries.
+   */
+  void insertAll() throws IOException {
+    ParallelTaskRunner.run(this.threads, this.entries.size(), new WorkerFactory() {
+      @Override
+      public Worker newWorker() {
+        return new BlobWorker(ParallelBlobInserter.this.repo.newObjectInserter());
+      }
+    }, "insert the blobs of the staged files");
+  }
+
+  private class BlobWorker extends Worker {
+    private final ObjectInserter inserter;
+
+    private BlobWorker(ObjectInserter inserter) {
+      this.inserter = inserter;
+    }
+
+    @Override
+    public void run(int index) throws IOException {
+      DirCacheEntry entry = ParallelBlobInserter.this.entries.get(index);
+      InputStream in = new FileInputStream(ParallelBlobInserter.this.files.get(index));
+      try {
+        entry.setObjectId(this.inserter.insert(OBJ_BLOB, ParallelBlobInserter.this.lengths.get(index), in));
+      } finally {
+        in.close();
+      }
+    }
+
+    @Override
+    public void finish() throws IOException {
+      this.inserter.flush();
+    }
+
+    @Override
+    public void close() {
+      this.inserter.close();
+    }
+  }
+}
@@ -0,0 +1,457 @@
+package com.itemis.maven.plugins.unleash.scm.providers.staging;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuildIterator;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.errors.UnmergedPathException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.NameConflictTreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Determines the dirty state of the working copy, stages the changes and creates the tree of the next commit in a
+ * single walk over the HEAD tree, the {@link DirCache} and the working tree.<br>
+ * This replaces the sequence of status scans, {@code AddCommand} and {@code CommitCommand} that would otherwise walk
+ * the whole working tree several times for one commit.
+ */
+public class StagingEngine {
+  private static final int T_HEAD = 0;
+  private static final int T_INDEX = 1;
+  private static final int T_FILE = 2;
+
+  private final Repository repo;
+  private Set<String> paths;
+  private Set<String> scope;
+  private boolean includeUntracked;
+  private boolean updateIndex;
+
+  public StagingEngine(Repository repo) {
+    this.repo = repo;
+    this.paths = Sets.newHashSet();
+    this.updateIndex = true;
+  }
+
+  /**
+   * The staging engine can only be used if the repository is in a safe state. Pending merges, reverts, ... must be
+   * committed using the JGit commands since they require additional parents and cleanup of the repository state.
+   */
+  public static boolean isApplicable(Repository repo) {
+    return repo.getRepositoryState() == RepositoryState.SAFE;
+  }
+
+  /**
+   * @param paths the paths to stage and commit. If no paths are specified all changes are staged and the new commit
+   *          contains the whole index. Otherwise the commit contains the HEAD revision with the changes of these paths
+   *          only.
+   */
+  public StagingEngine setPaths(Set<String> paths) {
+    this.paths = Sets.newHashSet();
+    if (paths != null && !paths.contains(".")) {
+      this.paths.addAll(paths);
+    }
+    return this;
+  }
+
+  /**
+   * @param scope the paths that may differ from HEAD, f.i. as reported by a change tracker. If set, the walk is
+   *          restricted to these paths and all other index entries are kept as they are. <code>null</code> means that
+   *          the whole working tree is examined.
+   */
+  public StagingEngine setScope(Set<String> scope) {
+    this.scope = scope;
+    return this;
+  }
+
+  /**
+   * @param includeUntracked whether untracked (and not ignored) files shall be staged. Untracked files are always
+   *          included if they are located below one of the explicitly requested paths.
+   */
+  public StagingEngine setIncludeUntracked(boolean includeUntracked) {
+    this.includeUntracked = includeUntracked;
+    return this;
+  }
+
+  /**
+   * @param updateIndex whether the staged changes shall be written to the index of the repository. If
+   *          <code>false</code> the index is only read and the commit tree is created in-core.
+   */
+  public StagingEngine setUpdateIndex(boolean updateIndex) {
+    this.updateIndex = updateIndex;
+    return this;
+  }
+
+  public StagingResult stage() throws IOException {
+    ObjectId headId = this.repo.resolve(Constants.HEAD);
+    ObjectId headTreeId = this.repo.resolve(Constants.HEAD + "^{tree}");
+    boolean commitOnly = !this.paths.isEmpty();
+    if (!commitOnly && this.scope != null && this.scope.isEmpty()) {
+      return new StagingResult(false, headId, headTreeId, Collections.<String> emptySet());
+    }
+
+    DirCache dc = this.updateIndex ? this.repo.lockDirCache() : this.repo.readDirCache();
+    ObjectInserter inserter = this.repo.newObjectInserter();
+    ObjectReader reader = inserter.newReader();
+    try {
+      if (dc.hasUnmergedPaths()) {
+        throw new UnmergedPathException(findUnmergedEntry(dc));
+      }
+
+      DirCacheBuilder builder = dc.builder();
+      // like the AddCommand, a name conflict walk reports a path that is a file in one tree and a folder in another one
+      // as a single entry so that the file can be replaced by the folder and vice versa
+      NameConflictTreeWalk tw = new NameConflictTreeWalk(this.repo, reader);
+      tw.setOperationType(OperationType.CHECKIN_OP);
+      tw.setRecursive(false);
+      tw.addTree(headTreeId != null ? createTreeParser(reader, headTreeId) : new EmptyTreeIterator());
+      tw.addTree(new DirCacheBuildIterator(builder));
+      FileTreeIterator fileIterator = new FileTreeIterator(this.repo);
+      fileIterator.setDirCacheIterator(tw, T_INDEX);
+      tw.addTree(fileIterator);
+      if (commitOnly) {
+        tw.setFilter(PathFilterGroup.createFromStrings(this.paths));
+      } else if (this.scope != null) {
+        tw.setFilter(PathFilterGroup.createFromStrings(this.scope));
+      }
+
+      boolean dirty = false;
+      // the changed entries (null for deletions) by path, these are required to build the commit tree if only some
+      // paths are committed
+      Map<String, DirCacheEntry> changes = new LinkedHashMap<String, DirCacheEntry>();
+      // new entries whose blobs are inserted in parallel after the walk, the comparison with HEAD is deferred until the
+      // object ids are known
+      ParallelBlobInserter blobInserter = new ParallelBlobInserter(this.repo);
+      List<PendingEntry> pendingEntries = Lists.newArrayList();
+      while (tw.next()) {
+        DirCacheIterator index = tw.getTree(T_INDEX, DirCacheIterator.class);
+        WorkingTreeIterator work = tw.getTree(T_FILE, WorkingTreeIterator.class);
+        int headMode = tw.getRawMode(T_HEAD);
+        ObjectId headObjectId = tw.getObjectId(T_HEAD);
+
+        boolean enterSubtree = false;
+        if (tw.isDirectoryFileConflict()) {
+          // the file side is staged right away (a file replaced by a folder is deleted and vice versa), the folder side
+          // is staged by entering the subtree afterwards
+          enterSubtree = isTree(tw, T_HEAD) || isTree(tw, T_INDEX)
+              || isTree(tw, T_FILE) && shallStageUntracked(commitOnly) && !work.isEntryIgnored();
+          if (isTree(tw, T_HEAD)) {
+            headMode = 0;
+            headObjectId = ObjectId.zeroId();
+          }
+          if (isTree(tw, T_INDEX)) {
+            index = null;
+          }
+          if (isTree(tw, T_FILE)) {
+            work = null;
+          }
+        } else if (tw.isSubtree()) {
+          boolean untracked = index == null && headMode == 0;
+          if (untracked && (!shallStageUntracked(commitOnly) || work != null && work.isEntryIgnored())) {
+            // untracked folders that won't be staged are not even entered
+            continue;
+          }
+          tw.enterSubtree();
+          continue;
+        }
+
+        DirCacheEntry entry = null;
+        if (index != null) {
+          DirCacheEntry indexEntry = index.getDirCacheEntry();
+          if (work == null) {
+            // deleted in the working tree -> the deletion is staged
+            entry = null;
+          } else if (FileMode.GITLINK.equals(indexEntry.getRawMode()) || !work.isModified(indexEntry, true, reader)) {
+            entry = indexEntry;
+          } else {
+            entry = createEntry(tw, index, work, inserter, blobInserter);
+          }
+        } else if (work != null && shallStageUntracked(commitOnly) && !work.isEntryIgnored()) {
+          entry = createEntry(tw, null, work, inserter, blobInserter);
+        }
+
+        if (entry != null) {
+          builder.add(entry);
+        }
+
+        if (entry != null && entry.getObjectId().equals(ObjectId.zeroId())) {
+          pendingEntries.add(new PendingEntry(tw.getPathString(), entry, headMode, headObjectId));
+        } else if (isDifferent(headMode, headObjectId, entry)) {
+          dirty = true;
+          changes.put(tw.getPathString(), entry);
+        }
+
+        if (enterSubtree) {
+          tw.enterSubtree();
+        }
+      }
+
+      blobInserter.insertAll();
+      for (PendingEntry pending : pendingEntries) {
+        if (isDifferent(pending.headMode, pending.headId, pending.entry)) {
+          dirty = true;
+          changes.put(pending.path, pending.entry);
+        }
+      }
+
+      builder.finish();
+      ObjectId treeId = headTreeId;
+      if (dirty) {
+        treeId = commitOnly ? createCommitTree(reader, inserter, headTreeId, changes) : dc.writeTree(inserter);
+      }
+      inserter.flush();
+
+      if (this.updateIndex) {
+        dc.write();
+        if (!dc.commit()) {
+          throw new IOException("Unable to write the index of repository " + this.repo.getDirectory());
+        }
+      }
+      return new StagingResult(dirty, headId, treeId, changes.keySet());
+    } finally {
+      if (this.updateIndex) {
+        dc.unlock();
+      }
+      reader.close();
+      inserter.close();
+    }
+  }
+
+  /**
+   * Creates a new commit object for the staged tree. The commit is only written to the object database, no ref is
+   * updated.
+   *
+   * @return the id of the new commit.
+   */
+  public ObjectId insertCommit(StagingResult result, String message, PersonIdent ident) throws IOException {
+    ObjectInserter inserter = this.repo.newObjectInserter();
+    try {
+      ObjectId commitId = insertCommit(result, message, ident, inserter);
+      inserter.flush();
+      return commitId;
+    } finally {
+      inserter.close();
+    }
+  }
+
+  /**
+   * Creates a new commit object for the staged tree using the passed inserter. The caller is responsible for flushing
+   * the inserter.
+   *
+   * @return the id of the new commit.
+   */
+  public ObjectId insertCommit(StagingResult result, String message, PersonIdent ident, ObjectInserter inserter)
+      throws IOException {
+    CommitBuilder commit = new CommitBuilder();
+    commit.setTreeId(result.getTreeId());
+    if (result.getHeadId() != null) {
+      commit.setParentId(result.getHeadId());
+    }
+    commit.setAuthor(ident);
+    commit.setCommitter(ident);
+    commit.setMessage(message);
+    return inserter.insert(commit);
+  }
+
+  /**
+   * Moves HEAD (or rather the branch HEAD points to) to the new commit.
+   */
+  public void updateHead(StagingResult result, ObjectId commitId, String message) throws IOException {
+    RefUpdate ru = this.repo.updateRef(Constants.HEAD);
+    ru.setNewObjectId(commitId);
+    ru.setExpectedOldObjectId(result.getHeadId() != null ? result.getHeadId() : ObjectId.zeroId());
+    String prefix = result.getHeadId() != null ? "commit: " : "commit (initial): ";
+    ru.setRefLogMessage(prefix + getShortMessage(message), false);
+    Result updateResult = ru.forceUpdate();
+    switch (updateResult) {
+      case NEW:
+      case FORCED:
+      case FAST_FORWARD:
+        break;
+      default:
+        throw new IOException("Unable to update HEAD to the new commit " + commitId.name() + ": " + updateResult);
+    }
+  }
+
+  private String getShortMessage(String message) {
+    int lineEnd = message.indexOf('\n');
+    return lineEnd < 0 ? message : message.substring(0, lineEnd);
+  }
+
+  private boolean shallStageUntracked(boolean commitOnly) {
+    return this.includeUntracked || commitOnly;
+  }
+
+  private DirCacheEntry createEntry(TreeWalk tw, DirCacheIterator index, WorkingTreeIterator work,
+      ObjectInserter inserter, ParallelBlobInserter blobInserter) throws IOException {
+    DirCacheEntry entry = new DirCacheEntry(tw.getRawPath());
+    FileMode mode = work.getIndexFileMode(index);
+    entry.setFileMode(mode);
+    if (FileMode.GITLINK.equals(mode)) {
+      entry.setObjectId(work.getEntryObjectId());
+    } else if (blobInserter.accepts(work, mode)) {
+      // the object id remains zero until the blob has been inserted by the parallel inserter
+      long length = work.getEntryLength();
+      entry.setLength(length);
+      entry.setLastModified(work.getEntryLastModified());
+      blobInserter.add(entry, new File(this.repo.getWorkTree(), tw.getPathString()), length);
+    } else {
+      entry.setLength(work.getEntryLength());
+      entry.setLastModified(work.getEntryLastModified());
+      long contentLength = work.getEntryContentLength();
+      InputStream in = work.openEntryStream();
+      try {
+        entry.setObjectId(inserter.insert(OBJ_BLOB, contentLength, in));
+      } finally {
+        in.close();
+      }
+    }
+    return entry;
+  }
+
+  private static boolean isTree(TreeWalk tw, int tree) {
+    return FileMode.TREE.equals(tw.getRawMode(tree));
+  }
+
+  private boolean isDifferent(int headMode, ObjectId headId, DirCacheEntry entry) {
+    if (entry == null) {
+      return headMode != 0;
+    }
+    return headMode != entry.getRawMode() || !entry.getObjectId().equals(headId);
+  }
+
+  private ObjectId createCommitTree(ObjectReader reader, ObjectInserter inserter, ObjectId headTreeId,
+      Map<String, DirCacheEntry> changes) throws IOException {
+    DirCache commitCache = DirCache.newInCore();
+    DirCacheBuilder b = commitCache.builder();
+    if (headTreeId != null) {
+      b.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, headTreeId);
+    }
+    b.finish();
+
+    DirCacheEditor editor = commitCache.editor();
+    for (Map.Entry<String, DirCacheEntry> change : changes.entrySet()) {
+      final DirCacheEntry entry = change.getValue();
+      if (entry == null) {
+        editor.add(new DeletePath(change.getKey()));
+      } else {
+        editor.add(new PathEdit(entry) {
+          @Override
+          public void apply(DirCacheEntry ent) {
+            ent.copyMetaData(entry);
+          }
+        });
+      }
+    }
+    editor.finish();
+    return commitCache.writeTree(inserter);
+  }
+
+  private AbstractTreeIterator createTreeParser(ObjectReader reader, ObjectId treeId) throws IOException {
+    CanonicalTreeParser parser = new CanonicalTreeParser();
+    parser.reset(reader, treeId);
+    return parser;
+  }
+
+  private DirCacheEntry findUnmergedEntry(DirCache dc) {
+    for (int i = 0; i < dc.getEntryCount(); i++) {
+      if (dc.getEntry(i).getStage() != DirCacheEntry.STAGE_0) {
+        return dc.getEntry(i);
+      }
+    }
+    return null;
+  }
+
+  private static class PendingEntry {
+    private final String path;
+    private final DirCacheEntry entry;
+    private final int headMode;
+    private final ObjectId headId;
+
+    PendingEntry(String path, DirCacheEntry entry, int headMode, ObjectId headId) {
+      this.path = path;
+      this.entry = entry;
+      this.headMode = headMode;
+      this.headId = headId;
+    }
+  }
+
+  /**
+   * The outcome of a staging run.
+   */
+  public static class StagingResult {
+    private final boolean dirty;
+    private final ObjectId headId;
+    private final ObjectId treeId;
+    private final Set<String> changedPaths;
+
+    StagingResult(boolean dirty, ObjectId headId, ObjectId treeId, Set<String> changedPaths) {
+      this.dirty = dirty;
+      this.headId = headId;
+      this.treeId = treeId;
+      this.changedPaths = changedPaths;
+    }
+
+    /**
+     * @return <code>true</code> if the staged tree differs from the HEAD tree.
+     */
+    public boolean isDirty() {
+      return this.dirty;
+    }
+
+    /**
+     * @return the id of the current HEAD commit or <code>null</code> if the repository has no commits yet.
+     */
+    public ObjectId getHeadId() {
+      return this.headId;
+    }
+
+    /**
+     * @return the id of the tree the next commit shall point to.
+     */
+    public ObjectId getTreeId() {
+      return this.treeId;
+    }
+
+    /**
+     * @return the paths that differ between HEAD and the staged tree.
+     */
+    public Set<String> getChangedPaths() {
+      return this.changedPaths;
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.itemis.maven.plugins.unleash.scm.providers.util;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Detects binary blobs from their first block, just like git does, so that huge blobs don't need to be inflated
+ * completely. The sniffer reuses its buffer and is thus not thread-safe.
+ */
+public class BinarySniffer {
+  private static final int SNIFF_LENGTH = 8000;
+
+  private final ObjectReader reader;
+  private final byte[] buffer = new byte[SNIFF_LENGTH];
+
+  public BinarySniffer(ObjectReader reader) {
+    this.reader = reader;
+  }
+
+  public boolean isBinary(AnyObjectId blobId) throws IOException {
+    InputStream in = this.reader.open(blobId, OBJ_BLOB).openStream();
+    try {
+      int length = IO.readFully(in, this.buffer, 0);
+      return RawText.isBinary(this.buffer, length);
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -5,7 +5,6 @@ import java.util.List;
 import java.util.Set;
 
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.ListBranchCommand.ListMode;
 import org.eclipse.jgit.api.LogCommand;
 import org.eclipse.jgit.api.StatusCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -26,14 +25,25 @@ import com.itemis.maven.plugins.unleash.scm.ScmOperation;
 public class GitUtil {
   public static final String TAG_NAME_PREFIX = "refs/tags/";
   public static final String HEADS_NAME_PREFIX = "refs/heads/";
+  public static final String CONFIG_SECTION_UNLEASH = "unleash";
 
   private Git git;
+  private WorktreeChangeTracker changeTracker;
 
   public GitUtil(Git git) {
     this.git = git;
   }
 
+  public GitUtil(Git git, WorktreeChangeTracker changeTracker) {
+    this.git = git;
+    this.changeTracker = changeTracker;
+  }
+
   public boolean isDirty(Set<String> paths) throws ScmException {
+    if (this.changeTracker != null) {
+      return !this.changeTracker.isClean(paths);
+    }
+
     try {
       StatusCommand status = this.git.status();
       for (String path : paths) {
@@ -46,6 +56,10 @@ public class GitUtil {
   }
 
   public Set<String> getUncommittedChangedPaths() throws ScmException {
+    if (this.changeTracker != null) {
+      return this.changeTracker.getUncommittedChanges();
+    }
+
     try {
       StatusCommand status = this.git.status();
       return status.call().getUncommittedChanges();
@@ -139,17 +153,11 @@ public class GitUtil {
 
   public boolean hasLocalBranch(String branchName) {
     try {
-      List<Ref> branches = this.git.branchList().setListMode(ListMode.ALL).call();
-      for (Ref branch : branches) {
-        if (Objects.equal(branch.getName(), HEADS_NAME_PREFIX + branchName)) {
-          return true;
-        }
-      }
-    } catch (GitAPIException e) {
+      return this.git.getRepository().exactRef(HEADS_NAME_PREFIX + branchName) != null;
+    } catch (IOException e) {
       throw new ScmException(ScmOperation.INFO,
           "An error occurred while querying the local git repository for branch '" + branchName + "'.", e);
     }
-    return false;
   }
 
   public RevCommit resolveCommit(Optional<String> commitId, Optional<String> branchName) throws ScmException {
@@ -0,0 +1,139 @@
+package com.itemis.maven.plugins.unleash.scm.providers.util;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * Executes the tasks <code>0</code> to <code>count - 1</code> on a bounded pool of worker threads. Each worker owns the
+ * resources it needs, e.g. an object reader or inserter since those are not thread-safe. A single worker runs on the
+ * calling thread.<br>
+ * If a task fails, the workers stop picking up new tasks. The first failure is rethrown only after all workers have
+ * finished so that no worker is still writing when the caller cleans up.
+ */
+public final class ParallelTaskRunner {
+  private ParallelTaskRunner() {
+    // utility class
+  }
+
+  /**
+   * Creates the worker of a single thread.
+   */
+  public interface WorkerFactory {
+    Worker newWorker() throws IOException;
+  }
+
+  /**
+   * Executes the tasks picked up by a single thread.
+   */
+  public abstract static class Worker {
+    public abstract void run(int index) throws IOException;
+
+    /**
+     * Called after the last task of this worker if all of its tasks succeeded, e.g. to flush an inserter.
+     */
+    public void finish() throws IOException {
+    }
+
+    /**
+     * Called when this worker is done, regardless of the outcome of its tasks.
+     */
+    public void close() {
+    }
+  }
+
+  /**
+   * @param threads the maximum number of worker threads.
+   * @param count the number of tasks.
+   * @param factory creates one worker per thread.
+   * @param description what the tasks do, used for the messages of wrapped failures.
+   */
+  public static void run(int threads, final int count, final WorkerFactory factory, String description)
+      throws IOException {
+    int workers = Math.min(threads, count);
+    final AtomicInteger next = new AtomicInteger();
+    if (workers < 1) {
+      return;
+    } else if (workers == 1) {
+      work(factory, next, count);
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<Void>> futures = Lists.newArrayListWithCapacity(workers);
+      for (int i = 0; i < workers; i++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            work(factory, next, count);
+            return null;
+          }
+        }));
+      }
+
+      Throwable failure = null;
+      boolean interrupted = false;
+      for (Future<Void> future : futures) {
+        while (true) {
+          try {
+            future.get();
+            break;
+          } catch (ExecutionException e) {
+            if (failure == null) {
+              failure = e.getCause();
+            }
+            break;
+          } catch (InterruptedException e) {
+            // let the workers finish their current tasks and keep waiting for them
+            interrupted = true;
+            next.set(count);
+          }
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+        if (failure == null) {
+          throw new IOException("Interrupted while trying to " + description + ".");
+        }
+      }
+      if (failure != null) {
+        Throwables.propagateIfPossible(failure, IOException.class);
+        throw new IOException("Unable to " + description + ".", failure);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void work(WorkerFactory factory, AtomicInteger next, int count) throws IOException {
+    boolean success = false;
+    Worker worker = null;
+    try {
+      worker = factory.newWorker();
+      int i;
+      while ((i = next.getAndIncrement()) < count) {
+        worker.run(i);
+      }
+      worker.finish();
+      success = true;
+    } finally {
+      if (!success) {
+        // stops the other workers after their current tasks
+        next.set(count);
+      }
+      if (worker != null) {
+        worker.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,411 @@
+package com.itemis.maven.plugins.unleash.scm.providers.util;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.itemis.maven.plugins.unleash.scm.ScmException;
+import com.itemis.maven.plugins.unleash.scm.ScmOperation;
+
+/**
+ * Keeps a cached status snapshot of the working copy so that repeated status queries during a release do not need to
+ * scan the whole working tree.<br>
+ * After an initial full status scan the snapshot is refreshed incrementally. Only paths that are reported by a
+ * {@link WatchService} over the (non-ignored) working tree folders, paths that have been marked as changed explicitly,
+ * paths that changed in HEAD or the index since the last refresh and the paths that were already dirty are checked
+ * again.<br>
+ * Since the watch service delivers its events asynchronously, each refresh writes a short-lived marker file into the
+ * working tree root and waits for its event. All changes that happened before have been reported at that point. If the
+ * marker cannot be written or its event doesn't arrive in time, the whole working tree is scanned instead.<br>
+ * The tracker is optional and must be enabled using the repository config ({@code unleash.worktreeTracker = true}). It
+ * is not used on platforms that only provide a polling watch service since the status might be outdated there.
+ */
+public class WorktreeChangeTracker implements Closeable {
+  public static final String CONFIG_KEY_ENABLED = "worktreeTracker";
+  private static final String LOG_PREFIX = "Git - ";
+  private static final String SYNC_MARKER_PREFIX = ".unleash-sync-";
+  private static final long SYNC_TIMEOUT_MILLIS = 2000;
+
+  private final Git git;
+  private final Repository repo;
+  private final Path workTree;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> watchedDirs;
+  private final Logger log;
+
+  private final Set<String> changedPaths;
+  private boolean valid;
+  private boolean overflow;
+  private Set<String> uncommitted;
+  private Set<String> untracked;
+  private ObjectId headTreeId;
+  private DirCache index;
+
+  private WorktreeChangeTracker(Git git, WatchService watchService, Logger log) {
+    this.git = git;
+    this.repo = git.getRepository();
+    this.workTree = this.repo.getWorkTree().toPath();
+    this.watchService = watchService;
+    this.watchedDirs = Maps.newHashMap();
+    this.log = log;
+    this.changedPaths = Sets.newHashSet();
+    this.uncommitted = Collections.emptySet();
+    this.untracked = Collections.emptySet();
+  }
+
+  /**
+   * Creates a new change tracker for the working tree of the repository.
+   *
+   * @return the tracker or <code>null</code> if the tracker is not enabled or the platform doesn't provide a native
+   *         watch service.
+   */
+  public static WorktreeChangeTracker create(Git git, Logger log) {
+    Repository repo = git.getRepository();
+    if (repo.isBare() || !repo.getConfig().getBoolean(GitUtil.CONFIG_SECTION_UNLEASH, CONFIG_KEY_ENABLED, false)) {
+      return null;
+    }
+
+    WatchService watchService = null;
+    try {
+      watchService = repo.getWorkTree().toPath().getFileSystem().newWatchService();
+      if (watchService.getClass().getName().endsWith("PollingWatchService")) {
+        // polling watch services report changes with a delay of several seconds which would lead to outdated status
+        // information
+        watchService.close();
+        if (log.isLoggable(Level.FINE)) {
+          log.fine(LOG_PREFIX + "No native file system watch service available. Working tree changes are not tracked.");
+        }
+        return null;
+      }
+
+      WorktreeChangeTracker tracker = new WorktreeChangeTracker(git, watchService, log);
+      tracker.registerFolders();
+      return tracker;
+    } catch (IOException e) {
+      if (watchService != null) {
+        try {
+          watchService.close();
+        } catch (IOException e1) {
+          // ignore
+        }
+      }
+      if (log.isLoggable(Level.WARNING)) {
+        log.log(Level.WARNING, LOG_PREFIX + "Unable to track working tree changes. Falling back to full status scans.",
+            e);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Marks paths as changed, e.g. because they have been written by the provider itself. These paths are checked on the
+   * next status query even if no file system event has been received for them.
+   *
+   * @param paths the repository-relative paths that changed.
+   */
+  public synchronized void markChanged(Collection<String> paths) {
+    this.changedPaths.addAll(paths);
+  }
+
+  /**
+   * Invalidates the snapshot which results in a full status scan on the next query.
+   */
+  public synchronized void invalidate() {
+    this.valid = false;
+  }
+
+  /**
+   * @return all paths with uncommitted changes (added, changed, removed, missing, modified and conflicting paths).
+   */
+  public synchronized Set<String> getUncommittedChanges() throws ScmException {
+    refresh();
+    return Collections.unmodifiableSet(this.uncommitted);
+  }
+
+  /**
+   * @return all untracked paths that are not ignored.
+   */
+  public synchronized Set<String> getUntracked() throws ScmException {
+    refresh();
+    return Collections.unmodifiableSet(this.untracked);
+  }
+
+  /**
+   * @param paths the paths to check or an empty set to check the whole working tree.
+   * @return <code>true</code> if none of the paths has uncommitted changes or is untracked.
+   */
+  public synchronized boolean isClean(Set<String> paths) throws ScmException {
+    refresh();
+    if (paths.isEmpty()) {
+      return this.uncommitted.isEmpty() && this.untracked.isEmpty();
+    }
+    return !containsAny(this.uncommitted, paths) && !containsAny(this.untracked, paths);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.watchedDirs.clear();
+    this.watchService.close();
+  }
+
+  private void refresh() throws ScmException {
+    try {
+      if (!this.valid || !awaitEvents()) {
+        fullScan();
+        return;
+      }
+
+      Set<String> candidates = Sets.newHashSet(this.changedPaths);
+      ObjectId newHeadTreeId = this.repo.resolve(Constants.HEAD + "^{tree}");
+      if (!Objects.equal(this.headTreeId, newHeadTreeId)) {
+        collectTreeDifferences(this.headTreeId, newHeadTreeId, candidates);
+      }
+      // reading the index is cheap compared to a working tree scan and doesn't suffer from timestamp granularity issues
+      DirCache newIndex = this.repo.readDirCache();
+      collectDifferences(new DirCacheIterator(this.index), new DirCacheIterator(newIndex), candidates);
+
+      if (!candidates.isEmpty()) {
+        candidates.addAll(this.uncommitted);
+        candidates.addAll(this.untracked);
+
+        StatusCommand statusCommand = this.git.status();
+        for (String path : candidates) {
+          statusCommand.addPath(path);
+        }
+        Status status = statusCommand.call();
+        this.uncommitted = Sets.newHashSet(status.getUncommittedChanges());
+        this.untracked = Sets.newHashSet(status.getUntracked());
+      }
+
+      this.headTreeId = newHeadTreeId;
+      this.index = newIndex;
+      this.changedPaths.clear();
+    } catch (IOException e) {
+      this.valid = false;
+      throw new ScmException(ScmOperation.INFO, "Could not evaluate the status of the local repository.", e);
+    } catch (GitAPIException e) {
+      this.valid = false;
+      throw new ScmException(ScmOperation.INFO, "Could not evaluate the status of the local repository.", e);
+    }
+  }
+
+  private void fullScan() throws IOException, GitAPIException {
+    if (this.log.isLoggable(Level.FINE)) {
+      this.log.fine(LOG_PREFIX + "Scanning the whole working tree for changes.");
+    }
+
+    this.index = this.repo.readDirCache();
+    this.headTreeId = this.repo.resolve(Constants.HEAD + "^{tree}");
+    Status status = this.git.status().call();
+    this.uncommitted = Sets.newHashSet(status.getUncommittedChanges());
+    this.untracked = Sets.newHashSet(status.getUntracked());
+    this.changedPaths.clear();
+    this.valid = true;
+  }
+
+  /**
+   * Collects the events of all changes that happened before this call by writing a marker file into the working tree
+   * root and waiting for its creation event.
+   *
+   * @return <code>true</code> if all events have been collected, <code>false</code> if events may have been lost and a
+   *         full scan is required.
+   */
+  private boolean awaitEvents() throws IOException {
+    this.overflow = false;
+    File marker;
+    try {
+      marker = File.createTempFile(SYNC_MARKER_PREFIX, null, this.workTree.toFile());
+    } catch (IOException e) {
+      if (this.log.isLoggable(Level.FINE)) {
+        this.log.fine(LOG_PREFIX + "Unable to write the change tracker marker into the working tree.");
+      }
+      return false;
+    }
+
+    try {
+      long deadline = System.currentTimeMillis() + SYNC_TIMEOUT_MILLIS;
+      boolean markerSeen = false;
+      while (!markerSeen) {
+        long timeout = deadline - System.currentTimeMillis();
+        WatchKey key = timeout > 0 ? this.watchService.poll(timeout, TimeUnit.MILLISECONDS) : null;
+        if (key == null) {
+          if (this.log.isLoggable(Level.FINE)) {
+            this.log.fine(LOG_PREFIX + "The file system events of the working tree did not arrive in time.");
+          }
+          return false;
+        }
+        markerSeen = processEvents(key, marker.getName());
+      }
+
+      // the events of the other folders that are already queued
+      WatchKey key;
+      while ((key = this.watchService.poll()) != null) {
+        processEvents(key, marker.getName());
+      }
+      return !this.overflow;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      if (!marker.delete()) {
+        marker.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the key reported the creation of the marker file.
+   */
+  private boolean processEvents(WatchKey key, String markerName) throws IOException {
+    boolean markerSeen = false;
+    Path dir = this.watchedDirs.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        this.overflow = true;
+        continue;
+      }
+      if (dir == null) {
+        continue;
+      }
+
+      Path child = dir.resolve((Path) event.context());
+      if (isGitDir(child)) {
+        continue;
+      }
+      String fileName = child.getFileName().toString();
+      if (dir.equals(this.workTree) && fileName.startsWith(SYNC_MARKER_PREFIX)) {
+        markerSeen |= event.kind() == ENTRY_CREATE && fileName.equals(markerName);
+        continue;
+      }
+      if (event.kind() == ENTRY_CREATE && child.toFile().isDirectory()) {
+        registerFolder(child);
+      }
+      this.changedPaths.add(toRepositoryPath(child));
+    }
+    if (!key.reset()) {
+      this.watchedDirs.remove(key);
+    }
+    return markerSeen;
+  }
+
+  private void registerFolders() throws IOException {
+    registerFolder(this.workTree);
+
+    // walk the working tree using JGit in order to skip ignored folders such as build output folders
+    TreeWalk tw = new TreeWalk(this.repo);
+    try {
+      tw.setRecursive(false);
+      tw.addTree(new FileTreeIterator(this.repo));
+      while (tw.next()) {
+        if (tw.isSubtree()) {
+          WorkingTreeIterator work = tw.getTree(0, WorkingTreeIterator.class);
+          if (!work.isEntryIgnored()) {
+            registerFolder(this.workTree.resolve(tw.getPathString()));
+            tw.enterSubtree();
+          }
+        }
+      }
+    } finally {
+      tw.close();
+    }
+  }
+
+  private void registerFolder(Path dir) throws IOException {
+    WatchKey key = dir.register(this.watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+    this.watchedDirs.put(key, dir);
+  }
+
+  private boolean isGitDir(Path path) {
+    return path.startsWith(this.repo.getDirectory().toPath());
+  }
+
+  private String toRepositoryPath(Path path) {
+    return this.workTree.relativize(path).toString().replace(File.separatorChar, '/');
+  }
+
+  private void collectTreeDifferences(ObjectId oldTreeId, ObjectId newTreeId, Set<String> paths) throws IOException {
+    TreeWalk tw = new TreeWalk(this.repo);
+    try {
+      collectDifferences(tw, createTreeIterator(tw, oldTreeId), createTreeIterator(tw, newTreeId), paths);
+    } finally {
+      tw.close();
+    }
+  }
+
+  private void collectDifferences(AbstractTreeIterator oldTree, AbstractTreeIterator newTree, Set<String> paths)
+      throws IOException {
+    TreeWalk tw = new TreeWalk(this.repo);
+    try {
+      collectDifferences(tw, oldTree, newTree, paths);
+    } finally {
+      tw.close();
+    }
+  }
+
+  private void collectDifferences(TreeWalk tw, AbstractTreeIterator oldTree, AbstractTreeIterator newTree,
+      Set<String> paths) throws IOException {
+    tw.setRecursive(true);
+    tw.setFilter(TreeFilter.ANY_DIFF);
+    tw.addTree(oldTree);
+    tw.addTree(newTree);
+    while (tw.next()) {
+      paths.add(tw.getPathString());
+    }
+  }
+
+  private AbstractTreeIterator createTreeIterator(TreeWalk tw, ObjectId treeId) throws IOException {
+    if (treeId == null) {
+      return new EmptyTreeIterator();
+    }
+    CanonicalTreeParser parser = new CanonicalTreeParser();
+    parser.reset(tw.getObjectReader(), treeId);
+    return parser;
+  }
+
+  private static boolean containsAny(Set<String> dirtyPaths, Set<String> paths) {
+    for (String dirtyPath : dirtyPaths) {
+      for (String path : paths) {
+        if (dirtyPath.equals(path) || dirtyPath.startsWith(path + "/")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,98 @@
+package com.itemis.maven.plugins.unleash.scm.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.itemis.maven.plugins.unleash.scm.ScmException;
+import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
+import com.itemis.maven.plugins.unleash.scm.requests.BranchRequest;
+
+public class ScmProviderGitBranchTest {
+  private TestRepository origin;
+  private TestRepository local;
+  private ScmProviderGit provider;
+  private RevCommit initialCommit;
+
+  @Before
+  public void before() throws Exception {
+    this.origin = TestRepository.create();
+    this.origin.write("pom.xml", "<project/>\n");
+    this.initialCommit = this.origin.commitAll("initial");
+    this.local = TestRepository.cloneOf(this.origin);
+    this.provider = this.local.createProvider();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.provider.close();
+    this.local.close();
+    this.origin.close();
+  }
+
+  @Test
+  public void testBranchIsPushedWithoutMovingHead() throws Exception {
+    this.local.write("pom.xml", "<project><version>1-SNAPSHOT</version></project>\n");
+
+    String revision = this.provider.branch(createRequest("feature", true));
+    assertEquals(this.initialCommit.getName(), revision);
+
+    Ref remoteBranch = this.origin.getRepository().exactRef("refs/heads/feature");
+    assertNotNull(remoteBranch);
+    assertEquals(remoteBranch.getObjectId(), resolve(this.local, "refs/heads/feature"));
+    assertEquals(remoteBranch.getObjectId(), resolve(this.local, "refs/remotes/origin/feature"));
+    assertEquals(this.initialCommit, resolve(this.local, "HEAD"));
+    // the pre-branch commit contains the local changes
+    assertEquals("<project><version>1-SNAPSHOT</version></project>\n", read(this.origin, "feature:pom.xml"));
+  }
+
+  @Test
+  public void testBranchWithoutPush() throws Exception {
+    this.provider.branch(createRequest("feature", false));
+    assertNotNull(this.local.getRepository().exactRef("refs/heads/feature"));
+    assertNull(this.origin.getRepository().exactRef("refs/heads/feature"));
+  }
+
+  @Test
+  public void testExistingRemoteBranchIsRejected() throws Exception {
+    this.origin.getGit().branchCreate().setName("feature").call();
+    try {
+      this.provider.branch(createRequest("feature", true));
+      fail("Branching must fail if the remote branch exists already.");
+    } catch (ScmException e) {
+      assertNull(this.local.getRepository().exactRef("refs/heads/feature"));
+    }
+  }
+
+  private ObjectId resolve(TestRepository repository, String revision) throws Exception {
+    return repository.getRepository().resolve(revision);
+  }
+
+  private String read(TestRepository repository, String revision) throws Exception {
+    return new String(repository.getRepository().open(resolve(repository, revision)).getBytes(), Constants.CHARSET);
+  }
+
+  private BranchRequest createRequest(String branchName, boolean push) {
+    BranchRequest request = mock(BranchRequest.class);
+    when(request.getBranchName()).thenReturn(branchName);
+    when(request.getMessage()).thenReturn("Branch " + branchName);
+    when(request.branchFromWorkingCopy()).thenReturn(true);
+    when(request.commitBeforeBranching()).thenReturn(false);
+    when(request.push()).thenReturn(push);
+    when(request.getRevision()).thenReturn(Optional.<String> absent());
+    when(request.getMergeClient()).thenReturn(Optional.<MergeClient> absent());
+    return request;
+  }
+}
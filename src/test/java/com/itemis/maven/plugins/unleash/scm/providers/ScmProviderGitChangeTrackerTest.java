@@ -0,0 +1,103 @@
+package com.itemis.maven.plugins.unleash.scm.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
+import com.itemis.maven.plugins.unleash.scm.providers.util.WorktreeChangeTracker;
+import com.itemis.maven.plugins.unleash.scm.requests.CommitRequest;
+import com.itemis.maven.plugins.unleash.scm.requests.MergeStrategy;
+
+public class ScmProviderGitChangeTrackerTest {
+  private TestRepository repository;
+  private ScmProviderGit provider;
+
+  @Before
+  public void before() throws Exception {
+    this.repository = TestRepository.create();
+    this.repository.configure(WorktreeChangeTracker.CONFIG_KEY_ENABLED, "true");
+    this.repository.write("pom.xml", "<project/>\n");
+    this.repository.write("module/pom.xml", "<project/>\n");
+    this.repository.commitAll("initial");
+    this.provider = this.repository.createProvider();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.provider.close();
+    this.repository.close();
+  }
+
+  @Test
+  public void testCommitRightAfterWrite() throws Exception {
+    // the status snapshot is taken by the first commit, all later writes are only known by file system events
+    for (int i = 0; i < 20; i++) {
+      String content = "<project><version>" + i + "</version></project>\n";
+      this.repository.write("module/pom.xml", content);
+      String revision = this.provider.commit(createCommitRequest(false));
+      assertEquals(content, readCommitted(revision, "module/pom.xml"));
+    }
+  }
+
+  @Test
+  public void testCommitNewFileRightAfterWrite() throws Exception {
+    this.provider.commit(createCommitRequest(true));
+    for (int i = 0; i < 10; i++) {
+      String path = "module/sub" + i + "/pom.xml";
+      this.repository.write(path, "<project/>\n");
+      String revision = this.provider.commit(createCommitRequest(true));
+      assertEquals("<project/>\n", readCommitted(revision, path));
+    }
+  }
+
+  @Test
+  public void testCommitMarkedChange() throws Exception {
+    String before = this.provider.getLocalRevision();
+    this.repository.write("pom.xml", "<project><version>1</version></project>\n");
+    this.provider.markChanged(Collections.singleton("pom.xml"));
+    String revision = this.provider.commit(createCommitRequest(false));
+    assertNotEquals(before, revision);
+    assertEquals("<project><version>1</version></project>\n", readCommitted(revision, "pom.xml"));
+  }
+
+  private CommitRequest createCommitRequest(boolean includeUntrackedFiles) {
+    CommitRequest request = mock(CommitRequest.class);
+    when(request.getMessage()).thenReturn("change");
+    when(request.commitAllChanges()).thenReturn(true);
+    when(request.includeUntrackedFiles()).thenReturn(includeUntrackedFiles);
+    when(request.getPathsToCommit()).thenReturn(Collections.<String> emptySet());
+    when(request.getMergeStrategy()).thenReturn(MergeStrategy.DO_NOT_MERGE);
+    when(request.getMergeClient()).thenReturn(Optional.<MergeClient> absent());
+    return request;
+  }
+
+  private String readCommitted(String revision, String path) throws Exception {
+    ObjectReader reader = this.repository.getRepository().newObjectReader();
+    RevWalk walk = new RevWalk(reader);
+    try {
+      ObjectId treeId = walk.parseCommit(ObjectId.fromString(revision)).getTree();
+      TreeWalk tw = TreeWalk.forPath(reader, path, treeId);
+      if (tw == null) {
+        return null;
+      }
+      return new String(reader.open(tw.getObjectId(0)).getBytes(), Constants.CHARSET);
+    } finally {
+      walk.close();
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package com.itemis.maven.plugins.unleash.scm.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
+import com.itemis.maven.plugins.unleash.scm.providers.results.MergePreflightResult;
+import com.itemis.maven.plugins.unleash.scm.requests.CheckoutRequest;
+import com.itemis.maven.plugins.unleash.scm.requests.MergeStrategy;
+import com.itemis.maven.plugins.unleash.scm.requests.UpdateRequest;
+
+public class ScmProviderGitCheckoutTest {
+  private TestRepository origin;
+  private File workingDir;
+  private ScmProviderGit provider;
+
+  @Before
+  public void before() throws Exception {
+    this.origin = TestRepository.create();
+    this.origin.write("pom.xml", "<project/>\n");
+    this.origin.commitAll("initial");
+    this.workingDir = new File(Files.createTempDir(), "checkout");
+    this.provider = new ScmProviderGit();
+    this.provider.initialize(TestRepository.createInitialization(this.workingDir));
+  }
+
+  @After
+  public void after() throws Exception {
+    this.provider.close();
+    this.origin.close();
+    FileUtils.delete(this.workingDir.getParentFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+  }
+
+  @Test
+  public void testCheckoutSetsUpMergeDrivers() {
+    whenCheckout();
+    assertNotNull(this.provider.getMergeDriverRegistry());
+  }
+
+  @Test
+  public void testPreflightAfterCheckout() throws Exception {
+    whenCheckout();
+    this.origin.write("pom.xml", "<project><version>1</version></project>\n");
+    String remoteRevision = this.origin.commitAll("remote change").getName();
+
+    MergePreflightResult result = this.provider.preflightUpdate(createUpdateRequest());
+    assertEquals(MergePreflightResult.Status.FAST_FORWARD, result.getStatus());
+    assertEquals(remoteRevision, result.getTargetRevision());
+  }
+
+  private void whenCheckout() {
+    CheckoutRequest request = mock(CheckoutRequest.class);
+    when(request.getRemoteRepositoryUrl()).thenReturn(this.origin.getUrl());
+    when(request.checkoutWholeRepository()).thenReturn(true);
+    when(request.getRevision()).thenReturn(Optional.<String> absent());
+    this.provider.checkout(request);
+  }
+
+  private UpdateRequest createUpdateRequest() {
+    UpdateRequest request = mock(UpdateRequest.class);
+    when(request.getMergeStrategy()).thenReturn(MergeStrategy.FULL_MERGE);
+    when(request.getMergeClient()).thenReturn(Optional.of(mock(MergeClient.class)));
+    when(request.getTargetRevision()).thenReturn(Optional.<String> absent());
+    return request;
+  }
+}
@@ -0,0 +1,95 @@
+package com.itemis.maven.plugins.unleash.scm.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.itemis.maven.plugins.unleash.scm.providers.results.RefChangeResult;
+import com.itemis.maven.plugins.unleash.scm.requests.DeleteBranchRequest;
+
+public class ScmProviderGitDeleteBranchTest {
+  private TestRepository origin;
+  private TestRepository local;
+  private ScmProviderGit provider;
+  private RevCommit initialCommit;
+
+  @Before
+  public void before() throws Exception {
+    this.origin = TestRepository.create();
+    this.origin.write("pom.xml", "<project/>\n");
+    this.initialCommit = this.origin.commitAll("initial");
+    this.origin.getGit().branchCreate().setName("release-1").call();
+    this.origin.getGit().branchCreate().setName("release-2").call();
+    this.local = TestRepository.cloneOf(this.origin);
+    this.provider = this.local.createProvider();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.provider.close();
+    this.local.close();
+    this.origin.close();
+  }
+
+  @Test
+  public void testBranchIsDeletedLocallyAndRemotely() throws Exception {
+    this.local.getGit().branchCreate().setName("release-1").setStartPoint("origin/release-1").call();
+
+    String revision = this.provider.deleteBranch(createRequest("release-1", true));
+    assertEquals(this.initialCommit.getName(), revision);
+    assertNull(this.local.getRepository().exactRef("refs/heads/release-1"));
+    assertNull(this.local.getRepository().exactRef("refs/remotes/origin/release-1"));
+    assertNull(this.origin.getRepository().exactRef("refs/heads/release-1"));
+    assertNotNull(this.origin.getRepository().exactRef("refs/heads/release-2"));
+  }
+
+  @Test
+  public void testBranchIsDeletedLocallyWithoutPush() throws Exception {
+    this.local.getGit().branchCreate().setName("release-1").setStartPoint("origin/release-1").call();
+
+    this.provider.deleteBranch(createRequest("release-1", false));
+    assertNull(this.local.getRepository().exactRef("refs/heads/release-1"));
+    assertNotNull(this.origin.getRepository().exactRef("refs/heads/release-1"));
+  }
+
+  @Test
+  public void testBatchDeletion() throws Exception {
+    this.local.getGit().branchCreate().setName("release-2").setStartPoint("origin/release-2").call();
+    this.local.getGit().branchCreate().setName("local-only").call();
+
+    List<RefChangeResult> results = this.provider
+        .deleteBranches(Lists.newArrayList("release-1", "release-2", "local-only", "missing"), true);
+    assertEquals(4, results.size());
+    assertEquals(RefChangeResult.Status.OK, results.get(0).getStatus());
+    assertEquals(RefChangeResult.Status.OK, results.get(1).getStatus());
+    assertEquals(RefChangeResult.Status.OK, results.get(2).getStatus());
+    assertEquals(RefChangeResult.Status.NOT_FOUND, results.get(3).getStatus());
+
+    Repository localRepo = this.local.getRepository();
+    for (String branch : new String[] { "release-1", "release-2", "local-only" }) {
+      assertNull(localRepo.exactRef("refs/heads/" + branch));
+      assertNull(localRepo.exactRef("refs/remotes/origin/" + branch));
+      assertNull(this.origin.getRepository().exactRef("refs/heads/" + branch));
+    }
+    assertNotNull(localRepo.exactRef("refs/heads/master"));
+    assertNotNull(this.origin.getRepository().exactRef("refs/heads/master"));
+  }
+
+  private DeleteBranchRequest createRequest(String branchName, boolean push) {
+    DeleteBranchRequest request = mock(DeleteBranchRequest.class);
+    when(request.getBranchName()).thenReturn(branchName);
+    when(request.push()).thenReturn(push);
+    return request;
+  }
+}
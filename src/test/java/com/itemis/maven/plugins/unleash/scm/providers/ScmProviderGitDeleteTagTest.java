@@ -0,0 +1,90 @@
+package com.itemis.maven.plugins.unleash.scm.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.itemis.maven.plugins.unleash.scm.providers.results.RefChangeResult;
+import com.itemis.maven.plugins.unleash.scm.requests.DeleteTagRequest;
+
+public class ScmProviderGitDeleteTagTest {
+  private TestRepository origin;
+  private TestRepository local;
+  private ScmProviderGit provider;
+  private RevCommit initialCommit;
+
+  @Before
+  public void before() throws Exception {
+    this.origin = TestRepository.create();
+    this.origin.write("pom.xml", "<project/>\n");
+    this.initialCommit = this.origin.commitAll("initial");
+    this.local = TestRepository.cloneOf(this.origin);
+    this.provider = this.local.createProvider();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.provider.close();
+    this.local.close();
+    this.origin.close();
+  }
+
+  @Test
+  public void testRemoteTagIsDeletedWithoutFetching() throws Exception {
+    Ref remoteTag = this.origin.getGit().tag().setName("1.0.0").setMessage("Release 1.0.0").call();
+
+    String revision = this.provider.deleteTag(createRequest("1.0.0", true));
+    assertEquals(this.initialCommit.getName(), revision);
+    assertNull(this.origin.getRepository().exactRef("refs/tags/1.0.0"));
+    // the tag object has never been downloaded
+    assertFalse(this.local.getRepository().hasObject(remoteTag.getObjectId()));
+  }
+
+  @Test
+  public void testLocalTagIsDeletedWithoutPush() throws Exception {
+    this.origin.getGit().tag().setName("1.0.0").call();
+    this.local.getGit().tag().setName("1.0.0").call();
+
+    this.provider.deleteTag(createRequest("1.0.0", false));
+    assertNull(this.local.getRepository().exactRef("refs/tags/1.0.0"));
+    assertNotNull(this.origin.getRepository().exactRef("refs/tags/1.0.0"));
+  }
+
+  @Test
+  public void testBatchDeletion() throws Exception {
+    this.origin.getGit().tag().setName("both").call();
+    this.local.getGit().tag().setName("both").call();
+    Ref remoteTag = this.origin.getGit().tag().setName("remote").call();
+    this.local.getGit().tag().setName("local").call();
+
+    List<RefChangeResult> results = this.provider
+        .deleteTags(Lists.newArrayList("both", "remote", "local", "missing"), true);
+    assertEquals(RefChangeResult.Status.OK, results.get(0).getStatus());
+    assertEquals(RefChangeResult.Status.OK, results.get(1).getStatus());
+    assertEquals(RefChangeResult.Status.OK, results.get(2).getStatus());
+    assertEquals(RefChangeResult.Status.NOT_FOUND, results.get(3).getStatus());
+    assertEquals(remoteTag.getObjectId().getName(), results.get(1).getObjectId().get());
+
+    assertEquals(0, this.local.getRepository().getRefDatabase().getRefs("refs/tags/").size());
+    assertEquals(0, this.origin.getRepository().getRefDatabase().getRefs("refs/tags/").size());
+  }
+
+  private DeleteTagRequest createRequest(String tagName, boolean push) {
+    DeleteTagRequest request = mock(DeleteTagRequest.class);
+    when(request.getTagName()).thenReturn(tagName);
+    when(request.push()).thenReturn(push);
+    return request;
+  }
+}
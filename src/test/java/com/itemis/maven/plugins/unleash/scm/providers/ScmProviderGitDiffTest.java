@@ -0,0 +1,86 @@
+package com.itemis.maven.plugins.unleash.scm.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.itemis.maven.plugins.unleash.scm.providers.diff.DiffCache;
+import com.itemis.maven.plugins.unleash.scm.requests.DiffRequest;
+import com.itemis.maven.plugins.unleash.scm.requests.DiffRequest.DiffType;
+
+public class ScmProviderGitDiffTest {
+  private TestRepository repository;
+  private String firstRevision;
+
+  @Before
+  public void before() throws Exception {
+    this.repository = TestRepository.create();
+    this.repository.configure(DiffCache.CONFIG_KEY_PERSISTENT, "true");
+    this.repository.write("a.txt", "a\n");
+    this.firstRevision = this.repository.commitAll("initial").getName();
+    this.repository.write("a.txt", "changed\n");
+    this.repository.commitAll("change");
+  }
+
+  @After
+  public void after() throws Exception {
+    this.repository.close();
+  }
+
+  @Test
+  public void testCacheKeyContainsDiffSettings() throws Exception {
+    getDiff();
+    List<String> diffs = readCachedDiffs();
+    assertEquals(1, diffs.size());
+    assertTrue(diffs.get(0).contains("--- a/a.txt"));
+
+    StoredConfig config = this.repository.getRepository().getConfig();
+    config.setBoolean(ConfigConstants.CONFIG_DIFF_SECTION, null, "noprefix", true);
+    config.save();
+    getDiff();
+
+    diffs = readCachedDiffs();
+    assertEquals(2, diffs.size());
+    assertTrue(diffs.get(0).contains("--- a.txt") || diffs.get(1).contains("--- a.txt"));
+  }
+
+  private void getDiff() {
+    DiffRequest request = mock(DiffRequest.class);
+    when(request.getSourceRemoteRepositoryUrl()).thenReturn(Optional.<String> absent());
+    when(request.getTargetRemoteRepositoryUrl()).thenReturn(Optional.<String> absent());
+    when(request.getSourceRevision()).thenReturn(Optional.of(this.firstRevision));
+    when(request.getTargetRevision()).thenReturn(Optional.of("HEAD"));
+    when(request.getType()).thenReturn(DiffType.FULL);
+
+    // each diff gets its own provider so that it cannot be taken from the in-memory cache
+    ScmProviderGit provider = this.repository.createProvider();
+    try {
+      provider.getDiff(request);
+    } finally {
+      provider.close();
+    }
+  }
+
+  private List<String> readCachedDiffs() throws Exception {
+    File dir = new File(this.repository.getRepository().getDirectory(), "unleash/diff-cache");
+    List<String> diffs = Lists.newArrayList();
+    for (File f : dir.listFiles()) {
+      diffs.add(Files.toString(f, Charsets.UTF_8));
+    }
+    return diffs;
+  }
+}
@@ -0,0 +1,140 @@
+package com.itemis.maven.plugins.unleash.scm.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import com.itemis.maven.plugins.unleash.scm.ScmException;
+import com.itemis.maven.plugins.unleash.scm.ScmOperation;
+import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
+import com.itemis.maven.plugins.unleash.scm.providers.results.MergePreflightResult;
+import com.itemis.maven.plugins.unleash.scm.requests.MergeStrategy;
+import com.itemis.maven.plugins.unleash.scm.requests.UpdateRequest;
+
+public class ScmProviderGitPreflightTest {
+  private TestRepository origin;
+  private TestRepository local;
+  private ScmProviderGit provider;
+
+  @Before
+  public void before() throws Exception {
+    this.origin = TestRepository.create();
+    this.origin.write("a.txt", "a\n");
+    this.origin.write("b.txt", "b\n");
+    this.origin.commitAll("initial");
+    this.local = TestRepository.cloneOf(this.origin);
+    this.provider = this.local.createProvider();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.provider.close();
+    this.local.close();
+    this.origin.close();
+  }
+
+  @Test
+  public void testUpToDate() throws Exception {
+    assertEquals(MergePreflightResult.Status.UP_TO_DATE, this.provider.preflightUpdate(createRequest()).getStatus());
+  }
+
+  @Test
+  public void testFastForward() throws Exception {
+    this.origin.write("b.txt", "remote\n");
+    RevCommit remote = this.origin.commitAll("remote");
+
+    MergePreflightResult result = this.provider.preflightUpdate(createRequest());
+    assertEquals(MergePreflightResult.Status.FAST_FORWARD, result.getStatus());
+    assertEquals(remote.getName(), result.getTargetRevision());
+  }
+
+  @Test
+  public void testMergeable() throws Exception {
+    this.origin.write("b.txt", "remote\n");
+    this.origin.commitAll("remote");
+    this.local.write("a.txt", "local\n");
+    RevCommit head = this.local.commitAll("local");
+
+    MergePreflightResult result = this.provider.preflightUpdate(createRequest());
+    assertEquals(MergePreflightResult.Status.MERGEABLE, result.getStatus());
+    assertTrue(result.canMerge());
+    assertEquals(1, result.getCheckouts());
+    assertTrue(result.getConflictingPaths().isEmpty());
+    assertTrue(result.getDirtyPaths().isEmpty());
+    assertNotTouched(head);
+  }
+
+  @Test
+  public void testConflicting() throws Exception {
+    this.origin.write("a.txt", "remote\n");
+    this.origin.write("b.txt", "remote\n");
+    this.origin.commitAll("remote");
+    this.local.write("a.txt", "local\n");
+    RevCommit head = this.local.commitAll("local");
+    this.local.write("b.txt", "uncommitted\n");
+
+    MergePreflightResult result = this.provider.preflightUpdate(createRequest());
+    assertEquals(MergePreflightResult.Status.CONFLICTING, result.getStatus());
+    assertFalse(result.canMerge());
+    assertEquals(Collections.singletonList("a.txt"), result.getConflictingPaths());
+    // the remote change of b.txt would overwrite the uncommitted change
+    assertEquals(Collections.singleton("b.txt"), result.getDirtyPaths());
+    assertEquals("uncommitted\n", this.local.read("b.txt"));
+    assertNotTouched(head);
+  }
+
+  @Test
+  public void testFullMergeResolvesConflicts() throws Exception {
+    this.origin.write("a.txt", "remote\n");
+    this.origin.commitAll("remote");
+    this.local.write("a.txt", "local\n");
+    RevCommit head = this.local.commitAll("local");
+
+    UpdateRequest request = createRequest();
+    when(request.getMergeStrategy()).thenReturn(MergeStrategy.FULL_MERGE);
+    when(request.getMergeClient()).thenReturn(Optional.<MergeClient> of(new MergeClient() {
+      @Override
+      public void merge(InputStream local, InputStream remote, InputStream base, OutputStream result) {
+        try {
+          ByteStreams.copy(remote, result);
+        } catch (IOException e) {
+          throw new ScmException(ScmOperation.MERGE, "Could not merge the contents.", e);
+        }
+      }
+    }));
+
+    MergePreflightResult result = this.provider.preflightUpdate(request);
+    assertEquals(MergePreflightResult.Status.MERGEABLE, result.getStatus());
+    assertEquals(1, result.getContentMerges());
+    assertNotTouched(head);
+  }
+
+  private void assertNotTouched(RevCommit head) throws Exception {
+    assertEquals(head, this.local.getRepository().resolve(Constants.HEAD));
+    assertEquals("local\n", this.local.read("a.txt"));
+    assertTrue(this.local.getGit().status().call().getChanged().isEmpty());
+  }
+
+  private UpdateRequest createRequest() {
+    UpdateRequest request = mock(UpdateRequest.class);
+    when(request.getTargetRevision()).thenReturn(Optional.<String> absent());
+    when(request.getMergeStrategy()).thenReturn(MergeStrategy.DO_NOT_MERGE);
+    when(request.getMergeClient()).thenReturn(Optional.<MergeClient> absent());
+    return request;
+  }
+}
@@ -0,0 +1,194 @@
+package com.itemis.maven.plugins.unleash.scm.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
+import com.itemis.maven.plugins.unleash.scm.providers.results.RefChangeResult;
+import com.itemis.maven.plugins.unleash.scm.requests.MergeStrategy;
+import com.itemis.maven.plugins.unleash.scm.requests.TagRequest;
+
+public class ScmProviderGitTagTest {
+  private TestRepository origin;
+  private TestRepository local;
+  private ScmProviderGit provider;
+  private RevCommit initialCommit;
+
+  @Before
+  public void before() throws Exception {
+    this.origin = TestRepository.create();
+    this.origin.write("pom.xml", "<project/>\n");
+    this.initialCommit = this.origin.commitAll("initial");
+    this.local = TestRepository.cloneOf(this.origin);
+    this.provider = this.local.createProvider();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.provider.close();
+    this.local.close();
+    this.origin.close();
+  }
+
+  @Test
+  public void testBatchTagsArePushedWithoutMovingHead() throws Exception {
+    this.local.write("pom.xml", "<project><version>1</version></project>\n");
+
+    List<RefChangeResult> results = this.provider
+        .tag(Lists.newArrayList(createRequest("module-a-1", true), createRequest("module-b-1", true)));
+    assertEquals(2, results.size());
+    for (RefChangeResult result : results) {
+      assertEquals(result.toString(), RefChangeResult.Status.OK, result.getStatus());
+    }
+    assertEquals("module-a-1", results.get(0).getName());
+    assertEquals("module-b-1", results.get(1).getName());
+
+    // each tag has its own pre-tag commit on top of HEAD, both share the staged tree with the local changes
+    RevCommit taggedA = peel(this.local, "module-a-1");
+    RevCommit taggedB = peel(this.local, "module-b-1");
+    assertEquals(this.initialCommit, taggedA.getParent(0));
+    assertEquals(this.initialCommit, taggedB.getParent(0));
+    assertEquals(taggedA.getTree(), taggedB.getTree());
+    assertEquals("<project><version>1</version></project>\n", read(this.origin, "module-a-1^{}:pom.xml"));
+    assertEquals(this.initialCommit, this.local.getRepository().resolve(Constants.HEAD));
+    assertEquals("<project><version>1</version></project>\n", this.local.read("pom.xml"));
+
+    Ref remoteTag = this.origin.getRepository().exactRef("refs/tags/module-a-1");
+    assertNotNull(remoteTag);
+    assertEquals(results.get(0).getObjectId().get(), remoteTag.getObjectId().getName());
+    assertNotNull(this.origin.getRepository().exactRef("refs/tags/module-b-1"));
+  }
+
+  @Test
+  public void testBatchTagsWithoutPush() throws Exception {
+    List<RefChangeResult> results = this.provider.tag(Lists.newArrayList(createRequest("module-a-1", false)));
+    assertEquals(RefChangeResult.Status.OK, results.get(0).getStatus());
+    // nothing to commit, the tag points to HEAD
+    assertEquals(this.initialCommit, peel(this.local, "module-a-1"));
+    assertNull(this.origin.getRepository().exactRef("refs/tags/module-a-1"));
+  }
+
+  @Test
+  public void testExistingAndDuplicateTagsAreRejected() throws Exception {
+    this.local.getGit().tag().setName("existing").call();
+
+    List<RefChangeResult> results = this.provider.tag(Lists.newArrayList(createRequest("existing", false),
+        createRequest("module-a-1", false), createRequest("module-a-1", false), createRequest("in..valid", false)));
+    assertEquals(RefChangeResult.Status.REJECTED, results.get(0).getStatus());
+    assertEquals(RefChangeResult.Status.OK, results.get(1).getStatus());
+    assertEquals(RefChangeResult.Status.REJECTED, results.get(2).getStatus());
+    assertEquals(RefChangeResult.Status.REJECTED, results.get(3).getStatus());
+    assertEquals(this.initialCommit, peel(this.local, "module-a-1"));
+  }
+
+  @Test
+  public void testPushFailureIsReportedPerTag() throws Exception {
+    this.origin.write("pom.xml", "<project><version>2</version></project>\n");
+    this.origin.commitAll("remote");
+    this.origin.getGit().tag().setName("module-a-1").setMessage("remote").call();
+
+    List<RefChangeResult> results = this.provider
+        .tag(Lists.newArrayList(createRequest("module-a-1", true), createRequest("module-b-1", true)));
+    assertEquals(RefChangeResult.Status.PUSH_FAILED, results.get(0).getStatus());
+    assertTrue(results.get(0).getMessage().isPresent());
+    assertEquals(RefChangeResult.Status.OK, results.get(1).getStatus());
+    assertNotNull(this.local.getRepository().exactRef("refs/tags/module-a-1"));
+    assertNotNull(this.origin.getRepository().exactRef("refs/tags/module-b-1"));
+  }
+
+  @Test
+  public void testKeptPreTagCommitIsPushedWithRequestedTagsOnly() throws Exception {
+    this.local.getGit().tag().setName("unrelated").call();
+    this.local.write("pom.xml", "<project><version>1</version></project>\n");
+
+    // only a later request that keeps the pre-tag commit asks for the push
+    List<RefChangeResult> results = this.provider.tag(Lists.newArrayList(createRequest("module-a-1", false),
+        createRequest("module-b-1", true, false), createRequest("module-c-1", true, true)));
+    for (RefChangeResult result : results) {
+      assertEquals(result.toString(), RefChangeResult.Status.OK, result.getStatus());
+    }
+
+    ObjectId head = this.local.getRepository().resolve(Constants.HEAD);
+    assertEquals(this.initialCommit, peel(this.local, "module-b-1").getParent(0));
+    assertEquals(head, this.origin.getRepository().resolve("refs/heads/master"));
+    assertEquals(head, this.local.getRepository().resolve("refs/remotes/origin/master"));
+    assertEquals("<project><version>1</version></project>\n", read(this.origin, "master:pom.xml"));
+
+    Repository origin = this.origin.getRepository();
+    assertNotNull(origin.exactRef("refs/tags/module-c-1"));
+    assertNull(origin.exactRef("refs/tags/module-a-1"));
+    assertNull(origin.exactRef("refs/tags/module-b-1"));
+    assertNull(origin.exactRef("refs/tags/unrelated"));
+  }
+
+  @Test
+  public void testBranchPushDoesNotPushOtherTags() throws Exception {
+    this.local.getGit().tag().setName("unrelated").call();
+    this.local.write("pom.xml", "<project><version>1</version></project>\n");
+
+    List<RefChangeResult> results = this.provider.tag(
+        Lists.newArrayList(createRequest("module-a-1", true, true), createRequest("module-b-1", true, false)));
+    assertEquals(RefChangeResult.Status.OK, results.get(0).getStatus());
+    assertEquals(RefChangeResult.Status.OK, results.get(1).getStatus());
+
+    Repository origin = this.origin.getRepository();
+    assertEquals(this.local.getRepository().resolve(Constants.HEAD), origin.resolve("refs/heads/master"));
+    assertNotNull(origin.exactRef("refs/tags/module-a-1"));
+    assertNull(origin.exactRef("refs/tags/module-b-1"));
+    assertNull(origin.exactRef("refs/tags/unrelated"));
+  }
+
+  private RevCommit peel(TestRepository repository, String tagName) throws Exception {
+    ObjectId id = repository.getRepository().exactRef("refs/tags/" + tagName).getObjectId();
+    RevWalk walk = new RevWalk(repository.getRepository());
+    try {
+      RevTag tag = walk.parseTag(id);
+      assertEquals("Tag " + tagName, tag.getFullMessage());
+      return walk.parseCommit(tag.getObject());
+    } finally {
+      walk.close();
+    }
+  }
+
+  private String read(TestRepository repository, String revision) throws Exception {
+    Repository repo = repository.getRepository();
+    return new String(repo.open(repo.resolve(revision)).getBytes(), Constants.CHARSET);
+  }
+
+  private TagRequest createRequest(String tagName, boolean push) {
+    return createRequest(tagName, false, push);
+  }
+
+  private TagRequest createRequest(String tagName, boolean commitBeforeTagging, boolean push) {
+    TagRequest request = mock(TagRequest.class);
+    when(request.getTagName()).thenReturn(tagName);
+    when(request.getMessage()).thenReturn("Tag " + tagName);
+    when(request.tagFromWorkingCopy()).thenReturn(true);
+    when(request.commitBeforeTagging()).thenReturn(commitBeforeTagging);
+    when(request.includeUntrackedFiles()).thenReturn(false);
+    when(request.push()).thenReturn(push);
+    when(request.getPreTagCommitMessage()).thenReturn(Optional.<String> absent());
+    when(request.getMergeStrategy()).thenReturn(MergeStrategy.DO_NOT_MERGE);
+    when(request.getMergeClient()).thenReturn(Optional.<MergeClient> absent());
+    return request;
+  }
+}
@@ -0,0 +1,134 @@
+package com.itemis.maven.plugins.unleash.scm.providers;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.FileUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import com.itemis.maven.plugins.unleash.scm.ScmProviderInitialization;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+
+/**
+ * A git repository in a temporary directory that is deleted on {@link #close()}.
+ */
+public class TestRepository implements Closeable {
+  private final File dir;
+  private final Git git;
+
+  private TestRepository(File dir, Git git) {
+    this.dir = dir;
+    this.git = git;
+  }
+
+  public static TestRepository create() throws GitAPIException, IOException {
+    File dir = Files.createTempDir();
+    return configure(new TestRepository(dir, Git.init().setDirectory(dir).call()));
+  }
+
+  public static TestRepository createBare() throws GitAPIException, IOException {
+    File dir = Files.createTempDir();
+    return configure(new TestRepository(dir, Git.init().setBare(true).setDirectory(dir).call()));
+  }
+
+  public static TestRepository cloneOf(TestRepository origin) throws GitAPIException, IOException {
+    File dir = Files.createTempDir();
+    return configure(
+        new TestRepository(dir, Git.cloneRepository().setURI(origin.getUrl()).setDirectory(dir).call()));
+  }
+
+  private static TestRepository configure(TestRepository repository) throws IOException {
+    StoredConfig config = repository.getRepository().getConfig();
+    config.setString("user", null, "name", "Test");
+    config.setString("user", null, "email", "test@example.com");
+    config.save();
+    return repository;
+  }
+
+  /**
+   * Sets an option of the <code>unleash</code> config section.
+   */
+  public void configure(String key, String value) throws IOException {
+    StoredConfig config = getRepository().getConfig();
+    config.setString(GitUtil.CONFIG_SECTION_UNLEASH, null, key, value);
+    config.save();
+  }
+
+  /**
+   * Initializes a new provider on the working directory of this repository.
+   */
+  public ScmProviderGit createProvider() {
+    ScmProviderGit provider = new ScmProviderGit();
+    provider.initialize(createInitialization(this.dir));
+    return provider;
+  }
+
+  public static ScmProviderInitialization createInitialization(File workingDir) {
+    Logger log = Logger.getLogger(TestRepository.class.getName());
+    log.setLevel(Level.WARNING);
+
+    ScmProviderInitialization initialization = mock(ScmProviderInitialization.class);
+    when(initialization.getWorkingDirectory()).thenReturn(workingDir);
+    when(initialization.getLogger()).thenReturn(Optional.of(log));
+    when(initialization.getUsername()).thenReturn(Optional.<String> absent());
+    when(initialization.getPassword()).thenReturn(Optional.<String> absent());
+    when(initialization.getSshPrivateKey()).thenReturn(Optional.<String> absent());
+    when(initialization.getSshPrivateKeyPassphrase()).thenReturn(Optional.<String> absent());
+    return initialization;
+  }
+
+  public File write(String path, String content) throws IOException {
+    File file = new File(this.dir, path);
+    FileUtils.mkdirs(file.getParentFile(), true);
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+
+  public String read(String path) throws IOException {
+    return Files.toString(new File(this.dir, path), Charsets.UTF_8);
+  }
+
+  /**
+   * Stages all changes of the working tree and commits them.
+   */
+  public RevCommit commitAll(String message) throws GitAPIException {
+    this.git.add().addFilepattern(".").call();
+    this.git.add().setUpdate(true).addFilepattern(".").call();
+    return this.git.commit().setMessage(message).call();
+  }
+
+  public File getDirectory() {
+    return this.dir;
+  }
+
+  public String getUrl() {
+    return this.dir.toURI().toString();
+  }
+
+  public Git getGit() {
+    return this.git;
+  }
+
+  public Repository getRepository() {
+    return this.git.getRepository();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.git.close();
+    FileUtils.delete(this.dir, FileUtils.RECURSIVE | FileUtils.RETRY | FileUtils.SKIP_MISSING);
+  }
+}
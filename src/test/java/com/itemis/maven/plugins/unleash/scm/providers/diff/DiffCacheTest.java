@@ -0,0 +1,135 @@
+package com.itemis.maven.plugins.unleash.scm.providers.diff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.itemis.maven.plugins.unleash.scm.providers.TestRepository;
+import com.itemis.maven.plugins.unleash.scm.providers.diff.DiffCache.CachedDiffEntry;
+
+public class DiffCacheTest {
+  private TestRepository repository;
+
+  @Before
+  public void before() throws Exception {
+    this.repository = TestRepository.create();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.repository.close();
+  }
+
+  @Test
+  public void testHitAndMiss() {
+    DiffCache cache = new DiffCache(this.repository.getRepository());
+    List<CachedDiffEntry> diff = diff("a.txt", 10);
+    cache.put("key", diff);
+    assertEquals(diff, cache.get("key"));
+    assertNull(cache.get("other"));
+  }
+
+  @Test
+  public void testSizeIsBoundedInBytes() throws Exception {
+    this.repository.configure(DiffCache.CONFIG_KEY_SIZE, "8k");
+    DiffCache cache = new DiffCache(this.repository.getRepository());
+    cache.put("a", diff("a.txt", 2000));
+    cache.put("b", diff("b.txt", 1000));
+    // touches a so that b is the least recently used diff
+    assertNotNull(cache.get("a"));
+    cache.put("c", diff("c.txt", 1000));
+
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    assertTrue(cache.getSize() <= 8 * 1024);
+  }
+
+  @Test
+  public void testDiffLargerThanCacheIsNotKept() throws Exception {
+    this.repository.configure(DiffCache.CONFIG_KEY_SIZE, "1k");
+    DiffCache cache = new DiffCache(this.repository.getRepository());
+    cache.put("small", diff("a.txt", 10));
+    cache.put("huge", diff("b.txt", 1000));
+
+    assertNull(cache.get("huge"));
+    assertNotNull(cache.get("small"));
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    this.repository.configure(DiffCache.CONFIG_KEY_SIZE, "0");
+    DiffCache cache = new DiffCache(this.repository.getRepository());
+    assertFalse(cache.isEnabled());
+    cache.put("key", diff("a.txt", 10));
+    assertNull(cache.get("key"));
+  }
+
+  @Test
+  public void testPersistentTierIsBoundedInBytes() throws Exception {
+    this.repository.configure(DiffCache.CONFIG_KEY_PERSISTENT, "true");
+    this.repository.configure(DiffCache.CONFIG_KEY_PERSISTENT_SIZE, "1k");
+    DiffCache cache = new DiffCache(this.repository.getRepository());
+    cache.put("key-a", diff("a.txt", 400));
+    cache.put("key-b", diff("b.txt", 400));
+    long now = System.currentTimeMillis();
+    assertTrue(getPersistentFile("key-a").setLastModified(now - 2000));
+    assertTrue(getPersistentFile("key-b").setLastModified(now - 1000));
+    cache.put("key-c", diff("c.txt", 400));
+
+    // the least recently used file is pruned first
+    assertFalse(getPersistentFile("key-a").exists());
+    assertTrue(getPersistentFile("key-b").exists());
+    assertTrue(getPersistentFile("key-c").exists());
+    assertNotNull(new DiffCache(this.repository.getRepository()).get("key-b"));
+  }
+
+  @Test
+  public void testExpiredPersistentFilesArePruned() throws Exception {
+    this.repository.configure(DiffCache.CONFIG_KEY_PERSISTENT, "true");
+    new DiffCache(this.repository.getRepository()).put("old", diff("a.txt", 10));
+    File old = getPersistentFile("old");
+    assertTrue(old.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31)));
+
+    new DiffCache(this.repository.getRepository()).put("new", diff("b.txt", 10));
+    assertFalse(old.exists());
+    assertTrue(getPersistentFile("new").exists());
+  }
+
+  @Test
+  public void testKeyDependsOnAllInputs() {
+    ObjectId a = ObjectId.fromString("0123456789012345678901234567890123456789");
+    ObjectId b = ObjectId.fromString("9876543210987654321098765432109876543210");
+    String key = DiffCache.createKey(a, b, "FULL", "context=3");
+    assertEquals(key, DiffCache.createKey(a, b, "FULL", "context=3"));
+    assertNotEquals(key, DiffCache.createKey(b, a, "FULL", "context=3"));
+    assertNotEquals(key, DiffCache.createKey(a, b, "STATUS_ONLY", "context=3"));
+    assertNotEquals(key, DiffCache.createKey(a, b, "FULL", "context=5"));
+    assertNull(DiffCache.createKey(null, b, "FULL", "context=3"));
+  }
+
+  private File getPersistentFile(String key) {
+    File dir = new File(this.repository.getRepository().getDirectory(), "unleash" + File.separatorChar + "diff-cache");
+    return new File(dir, key);
+  }
+
+  private static List<CachedDiffEntry> diff(String path, int textLength) {
+    return Collections
+        .singletonList(new CachedDiffEntry(ChangeType.MODIFY, path, path, Strings.repeat("x", textLength)));
+  }
+}
@@ -0,0 +1,108 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.itemis.maven.plugins.unleash.scm.providers.TestRepository;
+import com.itemis.maven.plugins.unleash.scm.providers.util.GitUtil;
+
+public class MergeResultCacheTest {
+  private TestRepository repository;
+  private ObjectReader reader;
+  private Config config;
+  private ObjectId[] blobs;
+
+  @Before
+  public void before() throws Exception {
+    this.repository = TestRepository.create();
+    this.reader = this.repository.getRepository().newObjectReader();
+    this.config = new Config();
+    this.config.setBoolean(GitUtil.CONFIG_SECTION_UNLEASH, null, MergeResultCache.CONFIG_KEY_ENABLED, true);
+
+    ObjectInserter inserter = this.repository.getRepository().newObjectInserter();
+    try {
+      this.blobs = new ObjectId[4];
+      for (int i = 0; i < this.blobs.length; i++) {
+        this.blobs[i] = inserter.insert(Constants.OBJ_BLOB, Constants.encode("blob " + i));
+      }
+      inserter.flush();
+    } finally {
+      inserter.close();
+    }
+  }
+
+  @After
+  public void after() throws Exception {
+    this.reader.close();
+    this.repository.close();
+  }
+
+  @Test
+  public void testCacheHit() throws Exception {
+    MergeResultCache cache = createCache("client");
+    cache.put(this.blobs[0], this.blobs[1], this.blobs[2], null, this.blobs[3]);
+    assertEquals(this.blobs[3], cache.get(this.reader, this.blobs[0], this.blobs[1], this.blobs[2], null));
+    assertNull(cache.get(this.reader, this.blobs[0], this.blobs[1], this.blobs[2], "driver"));
+    assertNull(createCache("other").get(this.reader, this.blobs[0], this.blobs[1], this.blobs[2], null));
+  }
+
+  @Test
+  public void testNoClientIdentity() throws Exception {
+    MergeResultCache cache = createCache(null);
+    cache.put(this.blobs[0], this.blobs[1], this.blobs[2], null, this.blobs[3]);
+    assertNull(cache.get(this.reader, this.blobs[0], this.blobs[1], this.blobs[2], null));
+  }
+
+  @Test
+  public void testMaxAge() throws Exception {
+    this.config.setString(GitUtil.CONFIG_SECTION_UNLEASH, null, MergeResultCache.CONFIG_KEY_MAX_AGE, "1 hour");
+    MergeResultCache cache = createCache("client");
+    cache.put(this.blobs[0], this.blobs[1], this.blobs[2], null, this.blobs[3]);
+    for (File f : getCacheDir().listFiles()) {
+      f.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+    }
+    assertNull(cache.get(this.reader, this.blobs[0], this.blobs[1], this.blobs[2], null));
+    assertEquals(0, getCacheDir().listFiles().length);
+  }
+
+  @Test
+  public void testPruneLeastRecentlyUsed() throws Exception {
+    this.config.setInt(GitUtil.CONFIG_SECTION_UNLEASH, null, MergeResultCache.CONFIG_KEY_SIZE, 2);
+    MergeResultCache cache = createCache("client");
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 3; i++) {
+      cache.put(this.blobs[i], this.blobs[0], this.blobs[0], null, this.blobs[3]);
+      for (File f : getCacheDir().listFiles()) {
+        f.setLastModified(Math.min(f.lastModified(), now - TimeUnit.MINUTES.toMillis(3 - i)));
+      }
+    }
+    // the first entry is used again and therefore the second one is the least recently used
+    assertEquals(this.blobs[3], cache.get(this.reader, this.blobs[0], this.blobs[0], this.blobs[0], null));
+
+    cache.prune();
+    assertEquals(2, getCacheDir().listFiles().length);
+    assertEquals(this.blobs[3], cache.get(this.reader, this.blobs[0], this.blobs[0], this.blobs[0], null));
+    assertNull(cache.get(this.reader, this.blobs[1], this.blobs[0], this.blobs[0], null));
+    assertEquals(this.blobs[3], cache.get(this.reader, this.blobs[2], this.blobs[0], this.blobs[0], null));
+  }
+
+  private MergeResultCache createCache(String clientId) {
+    return new MergeResultCache(this.repository.getRepository().getDirectory(), this.config, clientId);
+  }
+
+  private File getCacheDir() {
+    return new File(this.repository.getRepository().getDirectory(), "unleash/merge-cache");
+  }
+}
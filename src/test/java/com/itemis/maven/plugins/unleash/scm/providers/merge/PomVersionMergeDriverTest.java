@@ -0,0 +1,116 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Joiner;
+
+public class PomVersionMergeDriverTest {
+  private PomVersionMergeDriver driver;
+  private ByteArrayOutputStream result;
+
+  @Before
+  public void before() {
+    this.driver = new PomVersionMergeDriver();
+    this.result = new ByteArrayOutputStream();
+  }
+
+  @Test
+  public void testProjectVersionConflict() throws Exception {
+    String base = pom("1.0.0-SNAPSHOT", "1.0.0", "3.0");
+    String ours = pom("1.0.0", "1.0.0", "3.0");
+    String theirs = pom("1.1.0-SNAPSHOT", "1.0.0", "3.1");
+
+    assertTrue(merge(base, ours, theirs));
+    assertEquals(pom("1.0.0", "1.0.0", "3.1"), getResult());
+  }
+
+  @Test
+  public void testParentVersionConflict() throws Exception {
+    String base = pom("1.0.0-SNAPSHOT", "1.0.0", "3.0");
+    String ours = pom("1.0.0-SNAPSHOT", "2.0.0", "3.0");
+    String theirs = pom("1.0.0-SNAPSHOT", "1.1.0", "3.0");
+
+    assertTrue(merge(base, ours, theirs));
+    assertEquals(ours, getResult());
+  }
+
+  @Test
+  public void testDependencyVersionConflict() throws Exception {
+    String base = pom("1.0.0-SNAPSHOT", "1.0.0", "3.0");
+    String ours = pom("1.0.0", "1.0.0", "3.1");
+    String theirs = pom("1.0.0-SNAPSHOT", "1.0.0", "3.2");
+
+    assertFalse(merge(base, ours, theirs));
+  }
+
+  @Test
+  public void testShiftedLines() throws Exception {
+    String base = pom("1.0.0-SNAPSHOT", "1.0.0", "3.0");
+    String ours = pom("1.0.0", "1.0.0", "3.0");
+    // their project version is on a different line because of the new properties
+    String theirs = pom("1.1.0-SNAPSHOT", "1.0.0", "3.0").replace("  <artifactId>app</artifactId>\n",
+        "  <artifactId>app</artifactId>\n  <properties>\n    <java>1.8</java>\n  </properties>\n");
+
+    assertTrue(merge(base, ours, theirs));
+    assertEquals(pom("1.0.0", "1.0.0", "3.0").replace("  <artifactId>app</artifactId>\n",
+        "  <artifactId>app</artifactId>\n  <properties>\n    <java>1.8</java>\n  </properties>\n"), getResult());
+  }
+
+  @Test
+  public void testOtherConflict() throws Exception {
+    String base = pom("1.0.0-SNAPSHOT", "1.0.0", "3.0");
+    String ours = base.replace("<artifactId>app</artifactId>", "<artifactId>app-local</artifactId>");
+    String theirs = base.replace("<artifactId>app</artifactId>", "<artifactId>app-remote</artifactId>");
+
+    assertFalse(merge(base, ours, theirs));
+  }
+
+  @Test
+  public void testMissingNewlineAtEnd() throws Exception {
+    String base = pom("1.0.0-SNAPSHOT", "1.0.0", "3.0").trim();
+    String ours = pom("1.0.0", "1.0.0", "3.0").trim();
+    String theirs = pom("1.1.0-SNAPSHOT", "1.0.0", "3.0").trim();
+
+    assertTrue(merge(base, ours, theirs));
+    assertEquals(ours, getResult());
+  }
+
+  @Test
+  public void testAddedOnBothSides() throws Exception {
+    assertFalse(this.driver.merge(null, stream(pom("1", "1", "1")), stream(pom("2", "1", "1")), this.result));
+  }
+
+  private boolean merge(String base, String ours, String theirs) throws IOException {
+    return this.driver.merge(stream(base), stream(ours), stream(theirs), this.result);
+  }
+
+  private String getResult() {
+    return new String(this.result.toByteArray(), Constants.CHARSET);
+  }
+
+  private static ByteArrayInputStream stream(String s) {
+    return new ByteArrayInputStream(Constants.encode(s));
+  }
+
+  private static String pom(String version, String parentVersion, String dependencyVersion) {
+    return Joiner.on('\n').join("<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+        "<project xmlns=\"http://maven.apache.org/POM/4.0.0\"",
+        "    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">", "  <parent>",
+        "    <groupId>com.example</groupId>", "    <artifactId>parent</artifactId>", "    <version>" + parentVersion + "</version>", "  </parent>",
+        "  <artifactId>app</artifactId>", "  <!-- the <version> of the release -->",
+        "  <version>" + version + "</version>", "  <dependencies>", "    <dependency>",
+        "      <groupId>com.example</groupId>", "      <artifactId>lib</artifactId>",
+        "      <version>" + dependencyVersion + "</version>", "    </dependency>", "  </dependencies>", "</project>",
+        "");
+  }
+}
@@ -0,0 +1,410 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.itemis.maven.plugins.unleash.scm.ScmException;
+import com.itemis.maven.plugins.unleash.scm.ScmOperation;
+import com.itemis.maven.plugins.unleash.scm.merge.MergeClient;
+import com.itemis.maven.plugins.unleash.scm.providers.TestRepository;
+
+public class UnleashGitMergerTest {
+  private TestRepository repository;
+  private RecordingMergeClient mergeClient;
+  private MergeDriverRegistry mergeDrivers;
+  private int commitTime;
+
+  @Before
+  public void before() throws Exception {
+    this.repository = TestRepository.create();
+    this.mergeClient = new RecordingMergeClient();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.repository.close();
+  }
+
+  @Test
+  public void testMergeClientIsCalledOnCallingThreadByDefault() throws Exception {
+    ObjectId base = commit(files("a.txt", "base\n", "b.txt", "base\n", "c.txt", "base\n"));
+    ObjectId ours = commit(files("a.txt", "ours\n", "b.txt", "ours\n", "c.txt", "ours\n"), base);
+    ObjectId theirs = commit(files("a.txt", "theirs\n", "b.txt", "theirs\n", "c.txt", "theirs\n"), base);
+
+    ResolveMerger merger = merge(ours, theirs);
+    assertTrue(merger.getUnmergedPaths().isEmpty());
+    assertEquals(3, this.mergeClient.threads.size());
+    for (Thread thread : this.mergeClient.threads) {
+      assertEquals(Thread.currentThread(), thread);
+    }
+    assertEquals("ours\n", read(merger.getResultTreeId(), "b.txt"));
+  }
+
+  @Test
+  public void testParallelMerges() throws Exception {
+    this.repository.configure(UnleashGitMerger.CONFIG_KEY_MERGE_THREADS, "3");
+    ObjectId base = commit(files("a.txt", "base\n", "b.txt", "base\n", "c.txt", "base\n", "d.txt", "base\n"));
+    ObjectId ours = commit(files("a.txt", "ours\n", "b.txt", "ours\n", "c.txt", "ours\n", "d.txt", "base\n"), base);
+    ObjectId theirs = commit(files("a.txt", "theirs\n", "b.txt", "theirs\n", "c.txt", "theirs\n", "d.txt", "x\n"),
+        base);
+
+    ResolveMerger merger = merge(ours, theirs);
+    assertEquals(3, this.mergeClient.threads.size());
+    assertEquals("ours\n", read(merger.getResultTreeId(), "a.txt"));
+    assertEquals("ours\n", read(merger.getResultTreeId(), "c.txt"));
+    assertEquals("x\n", read(merger.getResultTreeId(), "d.txt"));
+  }
+
+  @Test
+  public void testSpilledResultsAreDestroyedIfMergeFails() throws Exception {
+    ObjectId base = commit(files("a.txt", "base\n", "b.txt", "base\n"));
+    ObjectId ours = commit(files("a.txt", "ours\n", "b.txt", "ours\n"), base);
+    ObjectId theirs = commit(files("a.txt", "theirs\n", "b.txt", "theirs\n"), base);
+
+    final ScmException failure = new ScmException(ScmOperation.MERGE, "b.txt cannot be merged.");
+    ResolveMerger merger = (ResolveMerger) new UnleashGitFullMergeStrategy(new MergeClient() {
+      private int calls;
+
+      @Override
+      public void merge(InputStream local, InputStream remote, InputStream base, OutputStream result) {
+        if (++this.calls > 1) {
+          throw failure;
+        }
+        try {
+          // larger than the in-core limit of the merge buffers
+          result.write(new byte[2 << 20]);
+        } catch (IOException e) {
+          throw new ScmException(ScmOperation.MERGE, "Could not merge the contents.", e);
+        }
+      }
+    }).newMerger(this.repository.getRepository(), true);
+    try {
+      merger.merge(ours, theirs);
+      fail("The failure of the merge client must be rethrown.");
+    } catch (ScmException e) {
+      assertSame(failure, e);
+    }
+
+    File[] buffers = this.repository.getRepository().getDirectory().listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith("jgit_");
+      }
+    });
+    assertEquals(0, buffers.length);
+  }
+
+  @Test
+  public void testMergeCacheIsDisabledByDefault() throws Exception {
+    this.mergeClient = new CacheableRecordingMergeClient();
+    mergeTwice();
+    assertEquals(2, this.mergeClient.threads.size());
+  }
+
+  @Test
+  public void testMergeCache() throws Exception {
+    this.repository.configure(MergeResultCache.CONFIG_KEY_ENABLED, "true");
+    this.mergeClient = new CacheableRecordingMergeClient();
+    mergeTwice();
+    assertEquals(1, this.mergeClient.threads.size());
+  }
+
+  @Test
+  public void testMergeCacheSkipsClientsWithoutIdentity() throws Exception {
+    this.repository.configure(MergeResultCache.CONFIG_KEY_ENABLED, "true");
+    mergeTwice();
+    assertEquals(2, this.mergeClient.threads.size());
+  }
+
+  @Test
+  public void testCrissCrossMergeUsesVirtualMergeBase() throws Exception {
+    ObjectId[] heads = crissCross();
+    merge(heads[0], heads[1]);
+    // the virtual merge base contains the changes of both merge bases
+    assertEquals(Lists.newArrayList("X\n2\nY\n"), this.mergeClient.bases);
+  }
+
+  @Test
+  public void testVirtualMergeBaseDepthIsLimited() throws Exception {
+    this.repository.configure(UnleashGitMerger.CONFIG_KEY_RECURSIVE_MERGE_BASE_DEPTH, "0");
+    ObjectId[] heads = crissCross();
+    merge(heads[0], heads[1]);
+    assertEquals(1, this.mergeClient.bases.size());
+    String base = this.mergeClient.bases.get(0);
+    assertTrue(base, base.equals("X\n2\n3\n") || base.equals("1\n2\nY\n"));
+  }
+
+  @Test
+  public void testBinaryConflictIsReportedByDefault() throws Exception {
+    ObjectId[] heads = binaryConflict();
+    ResolveMerger merger = (ResolveMerger) new UnleashGitFullMergeStrategy(this.mergeClient)
+        .newMerger(this.repository.getRepository(), true);
+    assertFalse(merger.merge(heads[0], heads[1]));
+    assertEquals(Lists.newArrayList("a.bin"), merger.getUnmergedPaths());
+    assertTrue(this.mergeClient.threads.isEmpty());
+  }
+
+  @Test
+  public void testBinaryMergeStrategy() throws Exception {
+    this.repository.configure(UnleashGitMerger.CONFIG_KEY_BINARY_MERGE_STRATEGY, "THEIRS");
+    ObjectId[] heads = binaryConflict();
+    assertEquals("theirs\0\n", read(merge(heads[0], heads[1]).getResultTreeId(), "a.bin"));
+    assertTrue(this.mergeClient.threads.isEmpty());
+  }
+
+  @Test
+  public void testBinaryAttribute() throws Exception {
+    this.repository.configure(UnleashGitMerger.CONFIG_KEY_BINARY_MERGE_STRATEGY, "OURS");
+    String attributes = "*.dat binary\n";
+    ObjectId base = commit(files(".gitattributes", attributes, "a.dat", "base\n", "a.txt", "base\n"));
+    ObjectId ours = commit(files(".gitattributes", attributes, "a.dat", "ours\n", "a.txt", "ours\n"), base);
+    ObjectId theirs = commit(files(".gitattributes", attributes, "a.dat", "theirs\n", "a.txt", "theirs\n"), base);
+
+    ResolveMerger merger = merge(ours, theirs);
+    assertEquals("ours\n", read(merger.getResultTreeId(), "a.dat"));
+    // only the text file is passed to the merge client
+    assertEquals(1, this.mergeClient.threads.size());
+  }
+
+  @Test
+  public void testInMemoryRepositoryMerge() throws Exception {
+    InMemoryRepository repo = new InMemoryRepository(new DfsRepositoryDescription("test"));
+    try {
+      ObjectId base = commit(repo, files("a.txt", "base\n", "b.txt", "base\n"));
+      ObjectId ours = commit(repo, files("a.txt", "ours\n", "b.txt", "base\n"), base);
+      ObjectId theirs = commit(repo, files("a.txt", "theirs\n", "b.txt", "theirs\n"), base);
+
+      ObjectInserter inserter = repo.newObjectInserter();
+      ObjectReader reader = repo.newObjectReader();
+      try {
+        ResolveMerger merger = (ResolveMerger) new UnleashGitFullMergeStrategy(this.mergeClient)
+            .newMerger(inserter, repo.getConfig());
+        assertTrue(merger.merge(ours, theirs));
+        TreeWalk tw = TreeWalk.forPath(reader, "a.txt", merger.getResultTreeId());
+        assertEquals("ours\n", new String(reader.open(tw.getObjectId(0)).getBytes(), Constants.CHARSET));
+        tw = TreeWalk.forPath(reader, "b.txt", merger.getResultTreeId());
+        assertEquals("theirs\n", new String(reader.open(tw.getObjectId(0)).getBytes(), Constants.CHARSET));
+      } finally {
+        reader.close();
+        inserter.close();
+      }
+      assertEquals(1, this.mergeClient.threads.size());
+    } finally {
+      repo.close();
+    }
+  }
+
+  @Test
+  public void testInserterMergeDoesNotUseMergeCache() throws Exception {
+    this.repository.configure(MergeResultCache.CONFIG_KEY_ENABLED, "true");
+    this.mergeClient = new CacheableRecordingMergeClient();
+    ObjectId base = commit(files("a.txt", "base\n"));
+    ObjectId ours = commit(files("a.txt", "ours\n"), base);
+    ObjectId theirs = commit(files("a.txt", "theirs\n"), base);
+
+    Repository repo = this.repository.getRepository();
+    for (int i = 0; i < 2; i++) {
+      ObjectInserter inserter = repo.newObjectInserter();
+      try {
+        ResolveMerger merger = (ResolveMerger) new UnleashGitFullMergeStrategy(this.mergeClient)
+            .newMerger(inserter, repo.getConfig());
+        assertTrue(merger.merge(ours, theirs));
+        assertEquals("ours\n", read(merger.getResultTreeId(), "a.txt"));
+      } finally {
+        inserter.close();
+      }
+    }
+    // there is no git directory to store the cache in
+    assertEquals(2, this.mergeClient.threads.size());
+  }
+
+  @Test
+  public void testPomVersionDriverIsMappedToPoms() throws Exception {
+    this.mergeDrivers = MergeDriverRegistry.createDefault(this.repository.getRepository().getConfig());
+    ObjectId[] heads = pomVersionConflict("module/pom.xml");
+    assertEquals(pom("1.0.0"), read(merge(heads[0], heads[1]).getResultTreeId(), "module/pom.xml"));
+    assertTrue(this.mergeClient.threads.isEmpty());
+  }
+
+  @Test
+  public void testPomVersionMergeCanBeDisabled() throws Exception {
+    this.repository.configure(MergeDriverRegistry.CONFIG_KEY_POM_VERSION_MERGE, "false");
+    this.mergeDrivers = MergeDriverRegistry.createDefault(this.repository.getRepository().getConfig());
+    ObjectId[] heads = pomVersionConflict("pom.xml");
+    merge(heads[0], heads[1]);
+    assertEquals(1, this.mergeClient.threads.size());
+  }
+
+  @Test
+  public void testMergeAttributeSelectsDriver() throws Exception {
+    this.repository.configure(MergeDriverRegistry.CONFIG_KEY_POM_VERSION_MERGE, "false");
+    this.mergeDrivers = MergeDriverRegistry.createDefault(this.repository.getRepository().getConfig());
+    String attributes = "*.pom merge=" + PomVersionMergeDriver.NAME + "\n";
+    ObjectId base = commit(files(".gitattributes", attributes, "app.pom", pom("1.0.0-SNAPSHOT")));
+    ObjectId ours = commit(files(".gitattributes", attributes, "app.pom", pom("1.0.0")), base);
+    ObjectId theirs = commit(files(".gitattributes", attributes, "app.pom", pom("1.1.0-SNAPSHOT")), base);
+
+    assertEquals(pom("1.0.0"), read(merge(ours, theirs).getResultTreeId(), "app.pom"));
+    assertTrue(this.mergeClient.threads.isEmpty());
+  }
+
+  /**
+   * Releases version 1.0.0 in ours while theirs prepares the next development version.
+   */
+  private ObjectId[] pomVersionConflict(String path) throws IOException {
+    ObjectId base = commit(files(path, pom("1.0.0-SNAPSHOT")));
+    ObjectId ours = commit(files(path, pom("1.0.0")), base);
+    ObjectId theirs = commit(files(path, pom("1.1.0-SNAPSHOT")), base);
+    return new ObjectId[] { ours, theirs };
+  }
+
+  private static String pom(String version) {
+    return "<project>\n  <artifactId>app</artifactId>\n  <version>" + version + "</version>\n</project>\n";
+  }
+
+  private ObjectId[] binaryConflict() throws IOException {
+    ObjectId base = commit(files("a.bin", "base\0\n"));
+    ObjectId ours = commit(files("a.bin", "ours\0\n"), base);
+    ObjectId theirs = commit(files("a.bin", "theirs\0\n"), base);
+    return new ObjectId[] { ours, theirs };
+  }
+
+  /**
+   * Creates two heads with the merge bases X and Y, each of them changing a different line of the same file. Both
+   * heads merge X and Y and change the file once more.
+   */
+  private ObjectId[] crissCross() throws IOException {
+    ObjectId base = commit(files("a.txt", "1\n2\n3\n"));
+    ObjectId x = commit(files("a.txt", "X\n2\n3\n"), base);
+    ObjectId y = commit(files("a.txt", "1\n2\nY\n"), base);
+    ObjectId mergeX = commit(files("a.txt", "X\n2\nY\n"), x, y);
+    ObjectId mergeY = commit(files("a.txt", "X\n2\nY\n"), y, x);
+    ObjectId ours = commit(files("a.txt", "ours\n2\nY\n"), mergeX);
+    ObjectId theirs = commit(files("a.txt", "X\n2\ntheirs\n"), mergeY);
+    return new ObjectId[] { ours, theirs };
+  }
+
+  private void mergeTwice() throws IOException {
+    ObjectId base = commit(files("a.txt", "base\n"));
+    ObjectId ours = commit(files("a.txt", "ours\n"), base);
+    ObjectId theirs = commit(files("a.txt", "theirs\n"), base);
+    assertEquals("ours\n", read(merge(ours, theirs).getResultTreeId(), "a.txt"));
+    assertEquals("ours\n", read(merge(ours, theirs).getResultTreeId(), "a.txt"));
+  }
+
+  ResolveMerger merge(ObjectId ours, ObjectId theirs) throws IOException {
+    ResolveMerger merger = (ResolveMerger) new UnleashGitFullMergeStrategy(this.mergeClient, null, this.mergeDrivers)
+        .newMerger(this.repository.getRepository(), true);
+    assertTrue(merger.merge(ours, theirs));
+    return merger;
+  }
+
+  static Map<String, String> files(String... pathsAndContents) {
+    ImmutableMap.Builder<String, String> files = ImmutableMap.builder();
+    for (int i = 0; i < pathsAndContents.length; i += 2) {
+      files.put(pathsAndContents[i], pathsAndContents[i + 1]);
+    }
+    return files.build();
+  }
+
+  ObjectId commit(Map<String, String> files, ObjectId... parents) throws IOException {
+    return commit(this.repository.getRepository(), files, parents);
+  }
+
+  ObjectId commit(Repository repo, Map<String, String> files, ObjectId... parents) throws IOException {
+    ObjectInserter inserter = repo.newObjectInserter();
+    try {
+      DirCacheBuilder builder = DirCache.newInCore().builder();
+      for (Map.Entry<String, String> file : ImmutableSortedMap.copyOf(files).entrySet()) {
+        DirCacheEntry entry = new DirCacheEntry(file.getKey());
+        entry.setFileMode(FileMode.REGULAR_FILE);
+        entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, Constants.encode(file.getValue())));
+        builder.add(entry);
+      }
+      builder.finish();
+
+      PersonIdent ident = new PersonIdent("Test", "test@example.com", 1000000L * ++this.commitTime, 0);
+      CommitBuilder commit = new CommitBuilder();
+      commit.setTreeId(builder.getDirCache().writeTree(inserter));
+      commit.setParentIds(parents);
+      commit.setAuthor(ident);
+      commit.setCommitter(ident);
+      commit.setMessage("commit " + this.commitTime);
+      ObjectId id = inserter.insert(commit);
+      inserter.flush();
+      return id;
+    } finally {
+      inserter.close();
+    }
+  }
+
+  String read(ObjectId treeId, String path) throws IOException {
+    ObjectReader reader = this.repository.getRepository().newObjectReader();
+    try {
+      TreeWalk tw = TreeWalk.forPath(reader, path, treeId);
+      return tw != null ? new String(reader.open(tw.getObjectId(0)).getBytes(), Constants.CHARSET) : null;
+    } finally {
+      reader.close();
+    }
+  }
+
+  static class CacheableRecordingMergeClient extends RecordingMergeClient implements CacheableMergeClient {
+    @Override
+    public String getCacheIdentity() {
+      return "recording";
+    }
+  }
+
+  /**
+   * Resolves every conflict with ours and records the threads it has been called from and the bases it got.
+   */
+  static class RecordingMergeClient implements MergeClient {
+    final List<Thread> threads = Lists.newArrayList();
+    final List<String> bases = Lists.newArrayList();
+
+    @Override
+    public synchronized void merge(InputStream local, InputStream remote, InputStream base, OutputStream result) {
+      this.threads.add(Thread.currentThread());
+      try {
+        this.bases.add(base != null ? new String(ByteStreams.toByteArray(base), Constants.CHARSET) : null);
+        ByteStreams.copy(local, result);
+      } catch (IOException e) {
+        throw new ScmException(ScmOperation.MERGE, "Could not merge the contents.", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.itemis.maven.plugins.unleash.scm.providers.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.merge.ResolveMerger.MergeFailureReason;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.itemis.maven.plugins.unleash.scm.providers.TestRepository;
+import com.itemis.maven.plugins.unleash.scm.providers.merge.UnleashGitMergerTest.RecordingMergeClient;
+
+/**
+ * Tests the merges of {@link UnleashGitMerger} into the index and working tree of a repository.
+ */
+public class UnleashGitMergerWorktreeTest {
+  private TestRepository repository;
+  private RecordingMergeClient mergeClient;
+
+  @Before
+  public void before() throws Exception {
+    this.repository = TestRepository.create();
+    this.mergeClient = new RecordingMergeClient();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.repository.close();
+  }
+
+  @Test
+  public void testUnchangedPathsKeepLocalChanges() throws Exception {
+    ObjectId theirs = prepareUnchangedSubtree();
+    // local changes in a subtree the merge does not touch
+    this.repository.write("lib/x.txt", "modified\n");
+    this.repository.write("lib/z.txt", "untracked\n");
+
+    ResolveMerger merger = merge(theirs);
+    assertTrue(merger.getModifiedFiles().containsAll(Arrays.asList("src/a.txt", "src/new.txt")));
+    assertEquals("theirs\n", this.repository.read("src/a.txt"));
+    assertEquals("ours\n", this.repository.read("src/b.txt"));
+    assertEquals("new\n", this.repository.read("src/new.txt"));
+    assertEquals("modified\n", this.repository.read("lib/x.txt"));
+
+    Status status = this.repository.getGit().status().call();
+    assertEquals(Collections.singleton("lib/x.txt"), status.getModified());
+    assertEquals(Collections.singleton("src/a.txt"), status.getChanged());
+    assertEquals(Collections.singleton("src/new.txt"), status.getAdded());
+    assertEquals(Collections.singleton("lib/z.txt"), status.getUntracked());
+    assertTrue(this.mergeClient.threads.isEmpty());
+  }
+
+  @Test
+  public void testStagedChangeInUnchangedPathFailsMerge() throws Exception {
+    ObjectId theirs = prepareUnchangedSubtree();
+    // the merge commit would contain the staged change otherwise
+    this.repository.write("lib/y.txt", "staged\n");
+    this.repository.getGit().add().addFilepattern("lib/y.txt").call();
+
+    Repository repo = this.repository.getRepository();
+    ResolveMerger merger = newMerger();
+    assertFalse(merger.merge(repo.resolve(Constants.HEAD), theirs));
+    assertEquals(Collections.singletonMap("lib/y.txt", MergeFailureReason.DIRTY_INDEX), merger.getFailingPaths());
+    assertEquals("base\n", this.repository.read("src/a.txt"));
+    assertFalse(new File(this.repository.getDirectory(), "src/new.txt").exists());
+
+    Status status = this.repository.getGit().status().call();
+    assertEquals(Collections.singleton("lib/y.txt"), status.getChanged());
+    assertTrue(status.getAdded().isEmpty());
+  }
+
+  /**
+   * Creates a merge of src where the subtree lib is equal in base, ours and theirs.
+   *
+   * @return theirs.
+   */
+  private ObjectId prepareUnchangedSubtree() throws Exception {
+    this.repository.write("src/a.txt", "base\n");
+    this.repository.write("src/b.txt", "base\n");
+    this.repository.write("lib/x.txt", "base\n");
+    this.repository.write("lib/y.txt", "base\n");
+    this.repository.commitAll("base");
+
+    ObjectId theirs = commitOnBranch("theirs", "src/a.txt", "theirs\n", "src/new.txt", "new\n");
+    this.repository.write("src/b.txt", "ours\n");
+    this.repository.commitAll("ours");
+    return theirs;
+  }
+
+  @Test
+  public void testParallelCheckout() throws Exception {
+    this.repository.configure(UnleashGitMerger.CONFIG_KEY_CHECKOUT_THREADS, "3");
+    this.repository.write("keep.txt", "base\n");
+    this.repository.write("old/a.txt", "base\n");
+    this.repository.write("old/b.txt", "base\n");
+    this.repository.write("file-to-dir", "base\n");
+    this.repository.write("dir-to-file/a.txt", "base\n");
+    this.repository.commitAll("base");
+
+    List<String> changes = Lists.newArrayList("keep.txt", "theirs\n", "old/a.txt", null, "old/b.txt", null,
+        "file-to-dir", null, "file-to-dir/a.txt", "theirs\n", "dir-to-file/a.txt", null, "dir-to-file", "theirs\n");
+    for (int i = 0; i < 40; i++) {
+      changes.add("new/" + i % 4 + "/sub/" + i + ".txt");
+      changes.add(i + "\n");
+    }
+    ObjectId theirs = commitOnBranch("theirs", changes.toArray(new String[changes.size()]));
+    this.repository.write("ours.txt", "ours\n");
+    this.repository.commitAll("ours");
+
+    merge(theirs);
+    for (int i = 0; i < 40; i++) {
+      assertEquals(i + "\n", this.repository.read("new/" + i % 4 + "/sub/" + i + ".txt"));
+    }
+    assertEquals("theirs\n", this.repository.read("keep.txt"));
+    assertEquals("theirs\n", this.repository.read("file-to-dir/a.txt"));
+    assertEquals("theirs\n", this.repository.read("dir-to-file"));
+    assertEquals("ours\n", this.repository.read("ours.txt"));
+    assertFalse(new File(this.repository.getDirectory(), "old").exists());
+
+    // the index matches the working tree
+    Status status = this.repository.getGit().status().call();
+    assertTrue(status.getModified().isEmpty());
+    assertTrue(status.getMissing().isEmpty());
+    assertTrue(status.getUntracked().isEmpty());
+    assertEquals(Sets.newHashSet("old/a.txt", "old/b.txt", "file-to-dir", "dir-to-file/a.txt"), status.getRemoved());
+  }
+
+  /**
+   * Commits the given files to a new branch starting at HEAD and switches back to master. A <code>null</code> content
+   * deletes the file.
+   */
+  ObjectId commitOnBranch(String branch, String... pathsAndContents) throws Exception {
+    this.repository.getGit().checkout().setCreateBranch(true).setName(branch).call();
+    for (int i = 0; i < pathsAndContents.length; i += 2) {
+      if (pathsAndContents[i + 1] != null) {
+        this.repository.write(pathsAndContents[i], pathsAndContents[i + 1]);
+      } else {
+        delete(pathsAndContents[i]);
+      }
+    }
+    ObjectId commit = this.repository.commitAll(branch);
+    this.repository.getGit().checkout().setName("master").call();
+    return commit;
+  }
+
+  void delete(String path) throws IOException {
+    File file = new File(this.repository.getDirectory(), path);
+    if (!file.delete()) {
+      throw new IOException("Could not delete " + file);
+    }
+    // just like git, empty folders are removed as well
+    File dir = file.getParentFile();
+    while (!dir.equals(this.repository.getDirectory()) && dir.delete()) {
+      dir = dir.getParentFile();
+    }
+  }
+
+  /**
+   * Merges the given commit into HEAD using the working tree.
+   */
+  ResolveMerger merge(ObjectId theirs) throws IOException {
+    ResolveMerger merger = newMerger();
+    assertTrue(merger.merge(this.repository.getRepository().resolve(Constants.HEAD), theirs));
+    return merger;
+  }
+
+  /**
+   * Creates a merger that uses the working tree, just like the merge command does.
+   */
+  ResolveMerger newMerger() {
+    Repository repo = this.repository.getRepository();
+    ResolveMerger merger = (ResolveMerger) new UnleashGitFullMergeStrategy(this.mergeClient).newMerger(repo);
+    merger.setWorkingTreeIterator(new FileTreeIterator(repo));
+    return merger;
+  }
+}
@@ -0,0 +1,172 @@
+package com.itemis.maven.plugins.unleash.scm.providers.staging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.itemis.maven.plugins.unleash.scm.providers.TestRepository;
+import com.itemis.maven.plugins.unleash.scm.providers.staging.StagingEngine.StagingResult;
+
+public class StagingEngineTest {
+  private TestRepository repository;
+
+  @Before
+  public void before() throws Exception {
+    this.repository = TestRepository.create();
+    this.repository.write("pom.xml", "pom\n");
+    this.repository.write("a", "file a\n");
+    this.repository.write("dir/b.txt", "b\n");
+    this.repository.commitAll("initial");
+  }
+
+  @After
+  public void after() throws Exception {
+    this.repository.close();
+  }
+
+  @Test
+  public void testNothingToStage() throws Exception {
+    StagingResult result = new StagingEngine(this.repository.getRepository()).setIncludeUntracked(true).stage();
+    assertFalse(result.isDirty());
+  }
+
+  @Test
+  public void testStageChanges() throws Exception {
+    this.repository.write("pom.xml", "changed\n");
+    this.repository.write("new.txt", "new\n");
+    delete("dir/b.txt");
+
+    StagingResult result = new StagingEngine(this.repository.getRepository()).stage();
+    assertTrue(result.isDirty());
+    assertEquals(ImmutableMap.of("a", "file a\n", "pom.xml", "changed\n"), readTree(result.getTreeId()));
+    assertEquals(result.getTreeId(), writeIndexTree());
+  }
+
+  @Test
+  public void testStageUntracked() throws Exception {
+    this.repository.write("new/new.txt", "new\n");
+
+    StagingResult result = new StagingEngine(this.repository.getRepository()).setIncludeUntracked(true).stage();
+    assertEquals(ImmutableMap.of("a", "file a\n", "dir/b.txt", "b\n", "new/new.txt", "new\n", "pom.xml", "pom\n"),
+        readTree(result.getTreeId()));
+  }
+
+  @Test
+  public void testFileReplacedByFolder() throws Exception {
+    delete("a");
+    this.repository.write("a/c.txt", "c\n");
+    this.repository.write("a.txt", "a.txt\n");
+
+    StagingResult result = new StagingEngine(this.repository.getRepository()).setIncludeUntracked(true).stage();
+    assertTrue(result.isDirty());
+    assertEquals(ImmutableMap.of("a.txt", "a.txt\n", "a/c.txt", "c\n", "dir/b.txt", "b\n", "pom.xml", "pom\n"),
+        readTree(result.getTreeId()));
+    assertEquals(result.getTreeId(), writeIndexTree());
+  }
+
+  @Test
+  public void testFileReplacedByUntrackedFolder() throws Exception {
+    delete("a");
+    this.repository.write("a/c.txt", "c\n");
+
+    // just like 'git commit -a' the deletion of the file is staged but the new folder is not
+    StagingResult result = new StagingEngine(this.repository.getRepository()).stage();
+    assertEquals(ImmutableMap.of("dir/b.txt", "b\n", "pom.xml", "pom\n"), readTree(result.getTreeId()));
+  }
+
+  @Test
+  public void testFolderReplacedByFile() throws Exception {
+    delete("dir");
+    this.repository.write("dir", "file dir\n");
+
+    StagingResult result = new StagingEngine(this.repository.getRepository()).setIncludeUntracked(true).stage();
+    assertTrue(result.isDirty());
+    assertEquals(ImmutableMap.of("a", "file a\n", "dir", "file dir\n", "pom.xml", "pom\n"),
+        readTree(result.getTreeId()));
+    assertEquals(result.getTreeId(), writeIndexTree());
+  }
+
+  @Test
+  public void testCommitOnlyFolderReplacingFile() throws Exception {
+    this.repository.write("pom.xml", "not committed\n");
+    delete("a");
+    this.repository.write("a/c.txt", "c\n");
+
+    StagingResult result = new StagingEngine(this.repository.getRepository()).setPaths(Collections.singleton("a"))
+        .stage();
+    assertEquals(ImmutableMap.of("a/c.txt", "c\n", "dir/b.txt", "b\n", "pom.xml", "pom\n"),
+        readTree(result.getTreeId()));
+  }
+
+  @Test
+  public void testScope() throws Exception {
+    this.repository.write("pom.xml", "changed\n");
+    this.repository.write("dir/b.txt", "changed\n");
+
+    StagingResult result = new StagingEngine(this.repository.getRepository())
+        .setScope(Collections.singleton("dir/b.txt")).stage();
+    assertEquals(ImmutableMap.of("a", "file a\n", "dir/b.txt", "changed\n", "pom.xml", "pom\n"),
+        readTree(result.getTreeId()));
+  }
+
+  @Test
+  public void testParallelInsertion() throws Exception {
+    this.repository.configure(ParallelBlobInserter.CONFIG_KEY_THREADS, "3");
+    Map<String, String> expected = Maps.newTreeMap();
+    expected.put("a", "file a\n");
+    expected.put("dir/b.txt", "b\n");
+    expected.put("pom.xml", "changed\n");
+    for (int i = 0; i < 50; i++) {
+      expected.put("new/file" + i + ".txt", "new " + i + "\n");
+    }
+    for (Map.Entry<String, String> file : expected.entrySet()) {
+      this.repository.write(file.getKey(), file.getValue());
+    }
+
+    StagingResult result = new StagingEngine(this.repository.getRepository()).setIncludeUntracked(true).stage();
+    assertEquals(expected, readTree(result.getTreeId()));
+    assertEquals(result.getTreeId(), writeIndexTree());
+  }
+
+  private void delete(String path) throws Exception {
+    FileUtils.delete(new File(this.repository.getDirectory(), path), FileUtils.RECURSIVE);
+  }
+
+  private ObjectId writeIndexTree() throws Exception {
+    DirCache dc = this.repository.getRepository().readDirCache();
+    return dc.writeTree(this.repository.getRepository().newObjectInserter());
+  }
+
+  private Map<String, String> readTree(ObjectId treeId) throws Exception {
+    Map<String, String> files = Maps.newTreeMap();
+    ObjectReader reader = this.repository.getRepository().newObjectReader();
+    TreeWalk tw = new TreeWalk(reader);
+    try {
+      tw.setRecursive(true);
+      tw.addTree(treeId);
+      while (tw.next()) {
+        files.put(tw.getPathString(), new String(reader.open(tw.getObjectId(0)).getBytes(), Constants.CHARSET));
+      }
+    } finally {
+      tw.close();
+      reader.close();
+    }
+    return files;
+  }
+}
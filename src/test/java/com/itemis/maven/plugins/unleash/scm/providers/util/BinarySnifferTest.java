@@ -0,0 +1,62 @@
+package com.itemis.maven.plugins.unleash.scm.providers.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.itemis.maven.plugins.unleash.scm.providers.TestRepository;
+
+public class BinarySnifferTest {
+  private TestRepository repository;
+  private ObjectReader reader;
+
+  @Before
+  public void before() throws Exception {
+    this.repository = TestRepository.create();
+    this.reader = this.repository.getRepository().newObjectReader();
+  }
+
+  @After
+  public void after() throws Exception {
+    this.reader.close();
+    this.repository.close();
+  }
+
+  @Test
+  public void testText() throws Exception {
+    assertFalse(new BinarySniffer(this.reader).isBinary(insert(Constants.encode("text\n"))));
+  }
+
+  @Test
+  public void testBinary() throws Exception {
+    assertTrue(new BinarySniffer(this.reader).isBinary(insert(new byte[] { 'a', 0, 'b' })));
+  }
+
+  @Test
+  public void testOnlyFirstBlockIsChecked() throws Exception {
+    byte[] content = new byte[10000];
+    Arrays.fill(content, (byte) 'a');
+    content[9000] = 0;
+    assertFalse(new BinarySniffer(this.reader).isBinary(insert(content)));
+  }
+
+  private ObjectId insert(byte[] content) throws Exception {
+    ObjectInserter inserter = this.repository.getRepository().newObjectInserter();
+    try {
+      ObjectId id = inserter.insert(Constants.OBJ_BLOB, content);
+      inserter.flush();
+      return id;
+    } finally {
+      inserter.close();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.itemis.maven.plugins.unleash.scm.providers.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.itemis.maven.plugins.unleash.scm.providers.util.ParallelTaskRunner.Worker;
+import com.itemis.maven.plugins.unleash.scm.providers.util.ParallelTaskRunner.WorkerFactory;
+
+public class ParallelTaskRunnerTest {
+
+  @Test
+  public void testAllTasksRunOnce() throws Exception {
+    final AtomicIntegerArray runs = new AtomicIntegerArray(100);
+    final AtomicInteger finished = new AtomicInteger();
+    final AtomicInteger closed = new AtomicInteger();
+    ParallelTaskRunner.run(3, runs.length(), new WorkerFactory() {
+      @Override
+      public Worker newWorker() {
+        return new Worker() {
+          @Override
+          public void run(int index) {
+            runs.incrementAndGet(index);
+          }
+
+          @Override
+          public void finish() {
+            finished.incrementAndGet();
+          }
+
+          @Override
+          public void close() {
+            closed.incrementAndGet();
+          }
+        };
+      }
+    }, "count");
+
+    for (int i = 0; i < runs.length(); i++) {
+      assertEquals(1, runs.get(i));
+    }
+    assertEquals(3, finished.get());
+    assertEquals(3, closed.get());
+  }
+
+  @Test
+  public void testSingleWorkerRunsOnCallingThread() throws Exception {
+    final Set<Thread> threads = Collections.synchronizedSet(Sets.<Thread> newHashSet());
+    ParallelTaskRunner.run(4, 1, new WorkerFactory() {
+      @Override
+      public Worker newWorker() {
+        return new Worker() {
+          @Override
+          public void run(int index) {
+            threads.add(Thread.currentThread());
+          }
+        };
+      }
+    }, "record");
+
+    assertEquals(Collections.singleton(Thread.currentThread()), threads);
+  }
+
+  @Test
+  public void testFailureAwaitsAllWorkers() throws Exception {
+    final IOException failure = new IOException("task 0 failed");
+    final AtomicInteger closed = new AtomicInteger();
+    final AtomicInteger finished = new AtomicInteger();
+    try {
+      ParallelTaskRunner.run(3, 50, new WorkerFactory() {
+        @Override
+        public Worker newWorker() {
+          return new Worker() {
+            @Override
+            public void run(int index) throws IOException {
+              if (index == 0) {
+                throw failure;
+              }
+              try {
+                Thread.sleep(20);
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+
+            @Override
+            public void finish() {
+              finished.incrementAndGet();
+            }
+
+            @Override
+            public void close() {
+              closed.incrementAndGet();
+            }
+          };
+        }
+      }, "sleep");
+      fail("The failure of the first task must be rethrown.");
+    } catch (IOException e) {
+      assertSame(failure, e);
+    }
+
+    // all workers are done when the failure is rethrown and the failing one is not finished
+    assertEquals(3, closed.get());
+    assertTrue(finished.get() <= 2);
+  }
+
+  @Test
+  public void testRuntimeExceptionIsRethrown() throws Exception {
+    final IllegalStateException failure = new IllegalStateException();
+    try {
+      ParallelTaskRunner.run(2, 10, new WorkerFactory() {
+        @Override
+        public Worker newWorker() {
+          return new Worker() {
+            @Override
+            public void run(int index) {
+              if (index == 5) {
+                throw failure;
+              }
+            }
+          };
+        }
+      }, "fail");
+      fail("The failure must be rethrown.");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+  }
+}